@@ -5,7 +5,13 @@ LOAD=1
 DURATION=1
 SUBSCRIBER_START=4474000000000
 SUBSCRIBER_COUNT=1000
-opt=$(getopt -o "p:a:l:d:s:c:h" --long "port:,address:,load:,duration:,subscriber-start:,subscriber-count:,help" -- "$@")
+JAVA_OPTS=""
+WORKERS=0
+COORDINATOR=""
+STUB=false
+CAPTURE=""
+CONTROL_PORT=0
+opt=$(getopt -o "p:a:l:d:s:c:m:t:ovu:i:P:r:STw:C:Ok:R:x:z:n:b:f:g:h" --long "port:,address:,load:,duration:,subscriber-start:,subscriber-count:,multiplex:,transport:,open-loop,virtual,updates:,interval:,peers:,routing:,search,session-table,workers:,coordinator:,stub,capture:,replay:,replay-speed:,subscribers:,max-per-subscriber:,write-batch:,flush-micros:,control-port:,help" -- "$@")
 for opt; do
   case "$opt" in
   -p | --port)
@@ -32,15 +38,120 @@ for opt; do
     SUBSCRIBER_COUNT=$2
     shift 2
     ;;
+  -m | --multiplex)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.multiplexed=true -Ddiameter.connections=$2"
+    shift 2
+    ;;
+  -t | --transport)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.transport=$2"
+    shift 2
+    ;;
+  -o | --open-loop)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.openLoop=true"
+    shift
+    ;;
+  -v | --virtual)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.threads=virtual"
+    shift
+    ;;
+  -u | --updates)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.updates=$2"
+    shift 2
+    ;;
+  -i | --interval)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.callSleep=$2"
+    shift 2
+    ;;
+  -P | --peers)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.peers=$2"
+    shift 2
+    ;;
+  -r | --routing)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.routing=$2"
+    shift 2
+    ;;
+  -S | --search)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.search=true"
+    shift
+    ;;
+  -T | --session-table)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.sessionTable=true"
+    shift
+    ;;
+  -w | --workers)
+    WORKERS=$2
+    shift 2
+    ;;
+  -C | --coordinator)
+    COORDINATOR=$2
+    shift 2
+    ;;
+  -O | --stub)
+    STUB=true
+    shift
+    ;;
+  -k | --capture)
+    CAPTURE=$2
+    shift 2
+    ;;
+  -R | --replay)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.replay=$2"
+    shift 2
+    ;;
+  -x | --replay-speed)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.replaySpeed=$2"
+    shift 2
+    ;;
+  -z | --subscribers)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.subscribers=$2"
+    shift 2
+    ;;
+  -n | --max-per-subscriber)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.maxSessionsPerSubscriber=$2"
+    shift 2
+    ;;
+  -b | --write-batch)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.writeBatch=$2"
+    shift 2
+    ;;
+  -f | --flush-micros)
+    JAVA_OPTS="$JAVA_OPTS -Ddiameter.flushMicros=$2"
+    shift 2
+    ;;
+  -g | --control-port)
+    CONTROL_PORT=$2
+    shift 2
+    ;;
   -h | --help)
     echo ""
-    echo "load.sh [-p|--port 3868] [-a|--address 127.0.0.1] [-l|--load 1] [-d|--duration 1] [-s|--subscriber-start 4474000000000] [-c|--subscriber-count 1000] [-h|--help]"
+    echo "load.sh [-p|--port 3868] [-a|--address 127.0.0.1] [-l|--load 1] [-d|--duration 1] [-s|--subscriber-start 4474000000000] [-c|--subscriber-count 1000] [-m|--multiplex 4] [-t|--transport socket] [-o|--open-loop] [-v|--virtual] [-u|--updates 2] [-i|--interval 500] [-P|--peers host:port:weight,...] [-r|--routing session] [-S|--search] [-T|--session-table] [-w|--workers 0] [-C|--coordinator host:3870] [-O|--stub] [-k|--capture file] [-R|--replay file] [-x|--replay-speed 1] [-z|--subscribers uniform] [-n|--max-per-subscriber 0] [-b|--write-batch 64] [-f|--flush-micros 0] [-g|--control-port 0] [-h|--help]"
     echo "    port             : server's diameter port"
     echo "    address          : server's IP address"
     echo "    load             : calls per second"
     echo "    duration         : duration of test"
     echo "    subscriber-start : Subscriber range start (exclusive)"
     echo "    subscriber-count : Subscriber count"
+    echo "    multiplex        : pipeline all sessions over this many connections per peer"
+    echo "    transport        : socket (reader thread per connection) or vertx (event loop)"
+    echo "    open-loop        : start sessions on a fixed schedule and measure latency from intended send time"
+    echo "    virtual          : run every session on its own virtual thread (implies multiplexed connections)"
+    echo "    updates          : CCR-u messages per session"
+    echo "    interval         : milliseconds between the messages of a session"
+    echo "    peers            : comma separated host:port[:weight] list, replaces address and port"
+    echo "    routing          : session (all CCRs of a session to one connection) or request (balance every CCR)"
+    echo "    search           : ramp from load until the latency/error SLA breaks and report the highest passing TPS"
+    echo "    session-table    : keep sessions in a fixed table driven by one thread instead of a thread per session"
+    echo "    workers          : split the load across this many local worker JVMs and report them as one"
+    echo "    coordinator      : run as a worker of the coordinator at host:port, which assigns load and subscribers"
+    echo "    stub             : answer the load from a stub OCS inside the runner, listening on port (not with workers or coordinator)"
+    echo "    capture          : record every CCR and CCA with its timestamp to this file (file.workerN per local worker)"
+    echo "    replay           : send the CCRs of a capture file again instead of generating sessions"
+    echo "    replay-speed     : 1 for the recorded pace, N for N times faster, or max"
+    echo "    subscribers      : uniform, sequential, zipf[:theta] or hotspot[:hotFraction:hotShare] subscriber picks"
+    echo "    max-per-subscriber : concurrent sessions allowed per subscriber, 0 for no limit"
+    echo "    write-batch      : messages coalesced into one write while a multiplexed connection is busy, 1 to write each alone"
+    echo "    flush-micros     : how long a queued message may wait for its write batch to fill"
+    echo "    control-port     : serve rate, pause/resume, interval and snapshot controls on this local port (port+N per local worker)"
     echo ""
     exit 0
     ;;
@@ -52,11 +163,49 @@ trap ctrl_c INT
 function ctrl_c() {
   PID=$(cat /tmp/load.pid)
   printf "Killing load runner %s...\n" "$PID"
-  kill -9 "$PID"
+  kill -9 "$PID" $(cat /tmp/load-workers.pid 2>/dev/null)
   exit 1
 }
+# options that must differ between JVMs on one host: $1 is appended to file names, $2 added to ports
+function process_opts() {
+  local opts=""
+  if [ -n "$CAPTURE" ]; then
+    opts="$opts -Ddiameter.capture=$CAPTURE$1"
+  fi
+  if [ "$CONTROL_PORT" -gt 0 ]; then
+    opts="$opts -Ddiameter.controlPort=$((CONTROL_PORT + $2))"
+  fi
+  echo "$opts"
+}
+
+if [ "$STUB" = true ]; then
+  if [ "$WORKERS" -gt 0 ] || [ -n "$COORDINATOR" ]; then
+    echo "--stub runs inside a single runner; start the stub OCS on its own (./gradlew stubOcs) for distributed load" >&2
+    exit 1
+  fi
+  JAVA_OPTS="$JAVA_OPTS -Ddiameter.stub=true"
+fi
+JAR=~/.m2/repository/org/usahin/diameter-test/1.0-SNAPSHOT/diameter-test-1.0-SNAPSHOT.jar
+rm -f /tmp/load-workers.pid
+if [ -n "$COORDINATOR" ]; then
+  echo "Starting worker of coordinator $COORDINATOR"
+  date
+  nohup java $JAVA_OPTS $(process_opts "" 0) -Ddiameter.coordinator="$COORDINATOR" -jar $JAR -Xms256m -Xmx2G > /tmp/load.log 2>&1 &
+  echo $! > /tmp/load.pid
+  tail -f /tmp/load.log --pid "$(cat /tmp/load.pid)"
+  exit 0
+fi
 echo "Starting load $ADDRESS:$PORT with TPS: $LOAD, Duration: $DURATION, Subscriber Start: $SUBSCRIBER_START, Subscriber Count: $SUBSCRIBER_COUNT"
 date
-nohup java -jar ~/.m2/repository/org/usahin/diameter-test/1.0-SNAPSHOT/diameter-test-1.0-SNAPSHOT.jar "$ADDRESS" "$PORT" "$LOAD" "$DURATION" "$SUBSCRIBER_START" "$SUBSCRIBER_COUNT" -Xms256m -Xmx2G > /tmp/load.log 2>&1 &
+if [ "$WORKERS" -gt 0 ]; then
+  RUNNER_OPTS="$JAVA_OPTS -Ddiameter.workers=$WORKERS"
+else
+  RUNNER_OPTS="$JAVA_OPTS $(process_opts "" 0)"
+fi
+nohup java $RUNNER_OPTS -jar $JAR "$ADDRESS" "$PORT" "$LOAD" "$DURATION" "$SUBSCRIBER_START" "$SUBSCRIBER_COUNT" -Xms256m -Xmx2G > /tmp/load.log 2>&1 &
 echo $! > /tmp/load.pid
+for i in $(seq 1 "$WORKERS"); do
+  nohup java $JAVA_OPTS $(process_opts ".worker$i" "$i") -Ddiameter.coordinator=127.0.0.1:3870 -jar $JAR -Xms256m -Xmx2G > "/tmp/load-worker$i.log" 2>&1 &
+  echo $! >> /tmp/load-workers.pid
+done
 tail -f /tmp/load.log --pid "$(cat /tmp/load.pid)"
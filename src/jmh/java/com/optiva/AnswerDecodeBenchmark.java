@@ -0,0 +1,114 @@
+package com.optiva;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receive-side work of the client: decoding a CCA or CEA, echoing a DWR, and splitting a stream of answers into frames.
+ * The answers are the ones {@link StubOcs} sends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnswerDecodeBenchmark {
+    private static final int FRAMES = 64;
+    private final AnswerDecoder answers = new AnswerDecoder();
+    private final DiameterFrameDecoder decoder = new DiameterFrameDecoder(4096);
+    private byte[] creditControlAnswer;
+    private byte[] capabilitiesExchangeAnswer;
+    private byte[] watchdogRequest;
+    private byte[] stream;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] ccr = CcrTemplate.of(RequestType.CCR_U, CcrTemplate.SESSION_KEY_LENGTH, 13)
+                .render(1, 2, 1234567890123L, 4474000000123L, 1, 16, 1000)
+                .clone();
+        watchdogRequest = request(DiameterFrameDecoder.DEVICE_WATCHDOG);
+        try (StubOcs stub = new StubOcs(0, 0, "2001", 0, 10_000_000)) {
+            creditControlAnswer = answer(stub, ccr);
+            capabilitiesExchangeAnswer = answer(stub, request(DiameterFrameDecoder.CAPABILITIES_EXCHANGE));
+        }
+        stream = new byte[creditControlAnswer.length * FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            System.arraycopy(creditControlAnswer, 0, stream, i * creditControlAnswer.length, creditControlAnswer.length);
+        }
+    }
+
+    @Benchmark
+    public long creditControlAnswer() {
+        AnswerDecoder cca = answers.decode(creditControlAnswer, 0);
+        return cca.resultCode() + cca.grantedOctets();
+    }
+
+    @Benchmark
+    public CreditControlAnswer creditControlAnswerRecord() {
+        return answers.decode(creditControlAnswer, 0).toAnswer();
+    }
+
+    @Benchmark
+    public int capabilitiesExchangeAnswer() {
+        return answers.decode(capabilitiesExchangeAnswer, 0).resultCode();
+    }
+
+    @Benchmark
+    public byte[] watchdogEcho() throws IOException {
+        int offset = decoder.reserve(watchdogRequest.length);
+        System.arraycopy(watchdogRequest, 0, decoder.array(), offset, watchdogRequest.length);
+        decoder.commit(watchdogRequest.length);
+        decoder.hasFrame();
+        byte[] answer = decoder.answerFrame();
+        decoder.skipFrame();
+        return answer;
+    }
+
+    @Benchmark
+    public void framing(Blackhole blackhole) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(stream);
+        while (decoder.readFrom(in) > 0) {
+            while (decoder.hasFrame()) {
+                blackhole.consume(decoder.hopByHopId());
+                decoder.skipFrame();
+            }
+        }
+    }
+
+    private static byte[] answer(StubOcs stub, byte[] request) {
+        ByteBuffer answer = ByteBuffer.allocate(4096);
+        stub.encodeAnswer(request, 0, new AvpCursor(), new AvpCursor(), answer);
+        return Arrays.copyOf(answer.array(), answer.position());
+    }
+
+    private static byte[] request(int commandCode) {
+        byte[] host = "bln1.siemens.de".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer request = ByteBuffer.allocate(20 + 8 + 16);
+        request.putInt(1 << 24 | request.capacity());
+        request.putInt(0x80 << 24 | commandCode);
+        request.putInt(0);
+        request.putInt(1);
+        request.putInt(2);
+        request.putInt(264);
+        request.putInt(0x40 << 24 | 8 + host.length);
+        request.put(host);
+        return request.array();
+    }
+}
@@ -0,0 +1,56 @@
+package com.optiva;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding each CCR type: through the Diameter library, as the client did originally, and by patching a
+ * {@link CcrTemplate} from strings or from numeric keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CcrEncodeBenchmark {
+    private static final String SESSION_ID = "session-" + "0".repeat(19);
+    private static final long MSISDN = 4474000000123L;
+    @Param({"CCR_I", "CCR_U", "CCR_T"})
+    private RequestType type;
+    private CcrTemplate template;
+    private String msisdn;
+    private int requestNumber;
+
+    @Setup
+    public void setup() {
+        msisdn = Long.toString(MSISDN);
+        template = CcrTemplate.of(type, CcrTemplate.SESSION_KEY_LENGTH, msisdn.length());
+    }
+
+    @Benchmark
+    public byte[] library() {
+        return DiameterClient.encode(type, SESSION_ID, msisdn, requestNumber++, 16, 1000);
+    }
+
+    @Benchmark
+    public byte[] template() {
+        return template.render(1, 2, SESSION_ID, msisdn, requestNumber++, 16, 1000);
+    }
+
+    @Benchmark
+    public byte[] templateNumeric() {
+        return template.render(1, 2, 1234567890123L, MSISDN, requestNumber++, 16, 1000);
+    }
+}
@@ -0,0 +1,96 @@
+package com.optiva;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CCR to CCA over loopback against an in-process {@link StubOcs}, on a blocking socket and on a multiplexed
+ * connection with its reader thread, one request at a time or {@value #PIPELINE} in flight. {@code writeBatch} 1
+ * writes every message on the caller's thread, as before batching.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+    private static final int PIPELINE = 64;
+    private final AnswerDecoder answers = new AnswerDecoder();
+    private StubOcs stub;
+    private FramedSocket socket;
+    private MultiplexedConnection connection;
+    private CcrTemplate template;
+    private int requestNumber;
+    @Param({"1", "64"})
+    private int writeBatch;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = new StubOcs(0, 0, "2001", 0, 10_000_000);
+        Peer peer = new Peer("127.0.0.1", stub.port(), 1);
+        socket = DiameterLoadRunner.openSocket(peer);
+        connection = new MultiplexedConnection(DiameterLoadRunner.openSocket(peer), "benchmark", writeBatch, 0);
+        template = CcrTemplate.of(RequestType.CCR_U, CcrTemplate.SESSION_KEY_LENGTH, 13);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.close();
+        socket.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public int blocking() throws IOException {
+        socket.write(render(DiameterIds.nextHopByHopId()));
+        DiameterFrameDecoder cca = socket.awaitFrame();
+        int resultCode = answers.decode(cca.array(), cca.frameOffset()).resultCode();
+        cca.skipFrame();
+        return resultCode;
+    }
+
+    @Benchmark
+    public CreditControlAnswer multiplexed() {
+        int hopByHopId = DiameterIds.nextHopByHopId();
+        return connection.send(hopByHopId, render(hopByHopId)).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public CompletableFuture<Void> pipelined() {
+        CompletableFuture<?>[] answers = new CompletableFuture<?>[PIPELINE];
+        for (int i = 0; i < PIPELINE; i++) {
+            int hopByHopId = DiameterIds.nextHopByHopId();
+            answers[i] = connection.send(hopByHopId, render(hopByHopId));
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(answers);
+        all.join();
+        return all;
+    }
+
+    private byte[] render(int hopByHopId) {
+        return template.render(hopByHopId,
+                               DiameterIds.nextEndToEndId(),
+                               1234567890123L,
+                               4474000000123L,
+                               requestNumber++,
+                               16,
+                               1000);
+    }
+}
@@ -0,0 +1,76 @@
+package com.optiva;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts the few AVPs the client acts on from an answer without building a message:
+ * Result-Code (or Experimental-Result-Code), Error-Message and CC-Total-Octets of the first Granted-Service-Unit.
+ * Only base protocol AVPs (vendor 0) match, so a vendor-specific AVP that reuses one of these codes is skipped.
+ * Values stay valid until the underlying buffer is reused.
+ */
+public final class AnswerDecoder {
+    private static final int EXPERIMENTAL_RESULT = 297;
+    private static final int EXPERIMENTAL_RESULT_CODE = 298;
+    private final AvpCursor avps = new AvpCursor();
+    private final AvpCursor group = new AvpCursor();
+    private final AvpCursor unit = new AvpCursor();
+    private byte[] buffer;
+    private int resultCode;
+    private long grantedOctets;
+    private int errorOffset;
+    private int errorLength;
+
+    public AnswerDecoder decode(byte[] buffer, int offset) {
+        this.buffer = buffer;
+        resultCode = -1;
+        grantedOctets = -1;
+        errorOffset = -1;
+        avps.wrapMessage(buffer, offset);
+        while (avps.next()) {
+            if (avps.vendorId() != 0) {
+                continue;
+            }
+            switch (avps.code()) {
+                case AvpCursor.RESULT_CODE -> resultCode = avps.intValue();
+                case EXPERIMENTAL_RESULT -> {
+                    if (resultCode < 0 && avps.enter(group).find(EXPERIMENTAL_RESULT_CODE, 0)) {
+                        resultCode = group.intValue();
+                    }
+                }
+                case AvpCursor.ERROR_MESSAGE -> {
+                    errorOffset = avps.dataOffset();
+                    errorLength = avps.dataLength();
+                }
+                case AvpCursor.MULTIPLE_SERVICES_CREDIT_CONTROL -> {
+                    if (grantedOctets < 0) {
+                        avps.enter(group);
+                        while (grantedOctets < 0 && group.find(AvpCursor.GRANTED_SERVICE_UNIT, 0)) {
+                            if (group.enter(unit).find(AvpCursor.CC_TOTAL_OCTETS, 0)) {
+                                grantedOctets = unit.longValue();
+                            }
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return this;
+    }
+
+    public int resultCode() {
+        return resultCode;
+    }
+
+    public long grantedOctets() {
+        return grantedOctets;
+    }
+
+    public String errorMessage() {
+        return errorOffset < 0 ? null : new String(buffer, errorOffset, errorLength, StandardCharsets.UTF_8);
+    }
+
+    public CreditControlAnswer toAnswer() {
+        return new CreditControlAnswer(resultCode, grantedOctets, resultCode != 2001 ? errorMessage() : null);
+    }
+}
@@ -0,0 +1,138 @@
+package com.optiva;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flyweight, forward-only view over the AVPs of an encoded Diameter message or grouped AVP.
+ * Nothing is copied or allocated while scanning; one cursor can be re-wrapped over any number of messages.
+ */
+public final class AvpCursor {
+    public static final int EVENT_TIMESTAMP = 55;
+    public static final int SESSION_ID = 263;
+    public static final int RESULT_CODE = 268;
+    public static final int ERROR_MESSAGE = 281;
+    public static final int CC_INPUT_OCTETS = 412;
+    public static final int CC_OUTPUT_OCTETS = 414;
+    public static final int CC_REQUEST_NUMBER = 415;
+    public static final int CC_TOTAL_OCTETS = 421;
+    public static final int GRANTED_SERVICE_UNIT = 431;
+    public static final int RATING_GROUP = 432;
+    public static final int SUBSCRIPTION_ID = 443;
+    public static final int SUBSCRIPTION_ID_DATA = 444;
+    public static final int USED_SERVICE_UNIT = 446;
+    public static final int MULTIPLE_SERVICES_CREDIT_CONTROL = 456;
+    private static final int VENDOR_FLAG = 0x80;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private int code;
+    private int flags;
+    private int length;
+    private int vendorId;
+    private int avpOffset;
+    private int dataOffset;
+
+    public AvpCursor wrapMessage(byte[] message, int offset) {
+        int limit = offset + DiameterFrameDecoder.messageLength(message, offset);
+        return wrap(message, offset + DiameterFrameDecoder.HEADER_LENGTH, limit);
+    }
+
+    public AvpCursor wrap(byte[] buffer, int offset, int limit) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = limit;
+        this.code = -1;
+        return this;
+    }
+
+    public AvpCursor enter(AvpCursor child) {
+        return child.wrap(buffer, dataOffset, dataOffset + dataLength());
+    }
+
+    public boolean next() {
+        if (position + 8 > limit) {
+            return false;
+        }
+        int offset = avpOffset = position;
+        code = readInt(buffer, offset);
+        flags = buffer[offset + 4] & 0xFF;
+        length = (buffer[offset + 5] & 0xFF) << 16 | (buffer[offset + 6] & 0xFF) << 8 | buffer[offset + 7] & 0xFF;
+        int headerLength = (flags & VENDOR_FLAG) != 0 ? 12 : 8;
+        if (length < headerLength || offset + length > limit) {
+            throw new IllegalStateException("Malformed AVP " + code + " at " + offset);
+        }
+        vendorId = headerLength == 12 ? readInt(buffer, offset + 8) : 0;
+        dataOffset = offset + headerLength;
+        position = offset + (length + 3 & ~3);
+        return true;
+    }
+
+    public boolean find(int avpCode) {
+        while (next()) {
+            if (code == avpCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean find(int avpCode, int avpVendorId) {
+        while (next()) {
+            if (code == avpCode && vendorId == avpVendorId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    public int vendorId() {
+        return vendorId;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    public int avpOffset() {
+        return avpOffset;
+    }
+
+    /**
+     * @return the AVP's length including its header, without padding
+     */
+    public int length() {
+        return length;
+    }
+
+    public int dataOffset() {
+        return dataOffset;
+    }
+
+    public int dataLength() {
+        return length - (dataOffset - avpOffset);
+    }
+
+    public int intValue() {
+        return readInt(buffer, dataOffset);
+    }
+
+    public long longValue() {
+        long value = 0;
+        for (int i = 0, n = dataLength(); i < n; i++) {
+            value = value << 8 | buffer[dataOffset + i] & 0xFF;
+        }
+        return value;
+    }
+
+    public String stringValue() {
+        return new String(buffer, dataOffset, dataLength(), StandardCharsets.UTF_8);
+    }
+
+    static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | b[i + 3] & 0xFF;
+    }
+}
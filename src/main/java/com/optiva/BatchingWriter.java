@@ -0,0 +1,176 @@
+package com.optiva;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Outbound side of a multiplexed connection. A sender that finds the socket idle and nothing queued writes its message
+ * on its own thread, so light load pays no thread handoff, unless {@code flushMicros} asks messages to wait. Otherwise
+ * it copies the message into a direct buffer and returns, and a writer thread hands everything queued to the socket in
+ * one write once the socket is free and {@code batchSize} messages are waiting or the oldest has waited
+ * {@code flushMicros}. Batches therefore form only while another write is in the kernel, and grow with the load. Two
+ * buffers take turns, so senders fill one while the other is being written. A message larger than a buffer waits for
+ * the socket and is written on the sender's thread, and a batch size of 1 always writes there.
+ */
+public class BatchingWriter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(BatchingWriter.class.getSimpleName());
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private final FramedSocket socket;
+    private final int batchSize;
+    private final long flushNanos;
+    private final Runnable onFailure;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private final Condition full = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private ByteBuffer filling;
+    private ByteBuffer draining;
+    private int count;
+    private long firstQueuedNanos;
+    private boolean writing;
+    private volatile boolean closed;
+
+    /**
+     * @param onFailure called once if the socket fails under the writer thread
+     */
+    public BatchingWriter(FramedSocket socket, String name, int batchSize, long flushMicros, Runnable onFailure) {
+        this.socket = socket;
+        this.batchSize = batchSize;
+        this.flushNanos = TimeUnit.MICROSECONDS.toNanos(flushMicros);
+        this.onFailure = onFailure;
+        if (batchSize > 1) {
+            filling = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            draining = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            Thread writer = new Thread(this::writeLoop, name + "-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    public void write(byte[] message) throws IOException {
+        lock.lock();
+        try {
+            if (batchSize <= 1) {
+                socket.write(message);
+                return;
+            }
+            if (message.length > BUFFER_SIZE) {
+                while (!closed && writing) {
+                    drained.awaitUninterruptibly();
+                }
+            }
+            if (!closed && !writing && (count == 0 && flushNanos == 0 || message.length > BUFFER_SIZE)) {
+                writeInline(message);
+                return;
+            }
+            while (!closed && filling.remaining() < message.length) {
+                full.signal();
+                drained.awaitUninterruptibly();
+            }
+            if (closed) {
+                throw new SocketException("Connection closed");
+            }
+            filling.put(message);
+            if (++count == 1) {
+                if (flushNanos > 0) {
+                    firstQueuedNanos = System.nanoTime();
+                }
+                queued.signal();
+            }
+            if (count == batchSize) {
+                full.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes on the sender's thread while holding the socket, so the writer thread waits for it. Called and returns
+     * with the lock held.
+     */
+    private void writeInline(byte[] message) throws IOException {
+        writing = true;
+        lock.unlock();
+        try {
+            socket.write(ByteBuffer.wrap(message));
+        } finally {
+            lock.lock();
+            writing = false;
+            drained.signalAll();
+            if (count > 0) {
+                queued.signal();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer batch;
+                lock.lock();
+                try {
+                    while ((count == 0 || writing) && !closed) {
+                        queued.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    long remaining = flushNanos > 0 ? firstQueuedNanos + flushNanos - System.nanoTime() : 0;
+                    while (count < batchSize && remaining > 0 && !closed) {
+                        remaining = full.awaitNanos(remaining);
+                    }
+                    while (writing && !closed) {
+                        queued.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    batch = filling;
+                    filling = draining;
+                    draining = batch;
+                    count = 0;
+                    writing = true;
+                    drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    socket.write(batch.flip());
+                    batch.clear();
+                } finally {
+                    lock.lock();
+                    writing = false;
+                    drained.signalAll();
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.severe("Write failed | cause:" + e.getMessage());
+                onFailure.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        lock.lock();
+        try {
+            queued.signalAll();
+            full.signalAll();
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.optiva;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+/**
+ * Offers open-loop load in fixed-length steps of increasing TPS and judges every step against a p99 latency and error
+ * ratio SLA. After the first breach the gap to the last passing rate is bisected, and the highest passing rate wins.
+ * Each step waits for its sessions to finish before it is judged, so late answers and timeouts count against the step
+ * that caused them. Sessions still running after the settle time count as errors of their step, and the next step
+ * starts only once they have ended, with their outcomes left out of it.
+ */
+public class CapacitySearch {
+    private static final Logger LOGGER = Logger.getLogger(CapacitySearch.class.getSimpleName());
+    private final LoadMetrics metrics;
+    private final MetricsExporter exporter;
+    private final Executor workers;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final LongConsumer session;
+    private final int messagesPerSession;
+    private final List<Step> steps = new ArrayList<>();
+    private int stepTps;
+    private int stepDuration = 30;
+    private int maxTps;
+    private int refinements = 2;
+    private int warmup;
+    private double p99Millis = 100;
+    private double errorRatio = 0.01;
+    private long settleMillis = 30_000;
+    private MetricsSnapshot last;
+
+    public record Step(int tps, long achievedTps, long p99Micros, double errorRatio, boolean passed) {
+    }
+
+    public CapacitySearch(LoadMetrics metrics,
+                          MetricsExporter exporter,
+                          Executor workers,
+                          LongConsumer session,
+                          int messagesPerSession) {
+        this.metrics = metrics;
+        this.exporter = exporter;
+        this.workers = task -> {
+            activeSessions.incrementAndGet();
+            workers.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    activeSessions.decrementAndGet();
+                }
+            });
+        };
+        this.session = session;
+        this.messagesPerSession = messagesPerSession;
+    }
+
+    public CapacitySearch step(int tps, int seconds) {
+        this.stepTps = tps;
+        this.stepDuration = seconds;
+        return this;
+    }
+
+    public CapacitySearch maxTps(int maxTps) {
+        this.maxTps = maxTps;
+        return this;
+    }
+
+    public CapacitySearch warmup(int seconds) {
+        this.warmup = seconds;
+        return this;
+    }
+
+    public CapacitySearch refinements(int refinements) {
+        this.refinements = refinements;
+        return this;
+    }
+
+    /**
+     * @param millis how long a step waits after its last arrival for its sessions to finish, typically the session's
+     *               pacing plus one answer timeout; sessions still running then count as errors of the step
+     */
+    public CapacitySearch settle(long millis) {
+        this.settleMillis = millis;
+        return this;
+    }
+
+    public CapacitySearch sla(double p99Millis, double errorRatio) {
+        this.p99Millis = p99Millis;
+        this.errorRatio = errorRatio;
+        return this;
+    }
+
+    /**
+     * @return the highest TPS that met the SLA, or 0 if even the base rate breached it
+     */
+    public int run(int baseTps) {
+        int step = stepTps > 0 ? stepTps : baseTps;
+        int passed = 0;
+        int failed = 0;
+        if (warmup > 0) {
+            LOGGER.info("Capacity search warm-up: " + baseTps + " TPS for " + warmup + " seconds");
+            new OpenLoopScheduler((double) baseTps / messagesPerSession, warmup, workers, session).run();
+        }
+        drain();
+        for (int tps = baseTps; maxTps <= 0 || tps <= maxTps; tps += step) {
+            if (runStep(tps).passed()) {
+                passed = tps;
+            } else {
+                failed = tps;
+                break;
+            }
+        }
+        for (int i = 0; i < refinements && failed - passed > 1; i++) {
+            int tps = (passed + failed) / 2;
+            if (runStep(tps).passed()) {
+                passed = tps;
+            } else {
+                failed = tps;
+            }
+        }
+        LOGGER.info("Capacity search steps (SLA p99 <= " + p99Millis + "ms, errors <= " + errorRatio * 100 + "%):");
+        LOGGER.info("  offered TPS | achieved TPS | p99 ms | errors % | result");
+        steps.forEach(s -> LOGGER.info(MessageFormat.format("  {0} | {1} | {2} | {3} | {4}",
+                                                            s.tps(),
+                                                            s.achievedTps(),
+                                                            s.p99Micros() / 1000.0,
+                                                            s.errorRatio() * 100,
+                                                            s.passed() ? "pass" : "FAIL")));
+        LOGGER.info("Highest TPS within SLA: " + passed);
+        return passed;
+    }
+
+    private Step runStep(int tps) {
+        LOGGER.info("Capacity search step: " + tps + " TPS for " + stepDuration + " seconds");
+        new OpenLoopScheduler((double) tps / messagesPerSession, stepDuration, workers, session).run();
+        int unfinished = settle();
+        MetricsSnapshot snapshot = metrics.snapshot();
+        exporter.export(snapshot);
+        LatencyHistogram latency = new LatencyHistogram();
+        snapshot.commands().forEach(c -> latency.add(c.interval()));
+        long unanswered = snapshot.timeouts() - last.timeouts() + snapshot.failures() - last.failures();
+        long errors = unanswered + unfinished;
+        long total = unanswered + unfinished;
+        for (Map.Entry<Integer, Long> e : snapshot.intervalResultCodes().entrySet()) {
+            total += e.getValue();
+            if (e.getKey() != 2001) {
+                errors += e.getValue();
+            }
+        }
+        double ratio = total == 0 ? 1 : (double) errors / total;
+        long p99 = latency.percentile(99);
+        // answers of the arrivals and the settle time, over both
+        long achievedTps = snapshot.intervalTps();
+        Step step = new Step(tps, achievedTps, p99, ratio, p99 <= p99Millis * 1000 && ratio <= errorRatio);
+        LOGGER.info(MessageFormat.format("Step {0} TPS: achieved {1}, p99 {2}ms, errors {3}% -> {4}",
+                                         tps,
+                                         step.achievedTps(),
+                                         p99 / 1000.0,
+                                         ratio * 100,
+                                         step.passed() ? "pass" : "FAIL"));
+        steps.add(step);
+        last = snapshot;
+        if (unfinished > 0) {
+            drain();
+        }
+        return step;
+    }
+
+    /**
+     * Waits for the sessions started so far to finish, at most {@link #settle(long)} milliseconds.
+     *
+     * @return the number of sessions still running
+     */
+    private int settle() {
+        int unfinished = awaitSessions(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settleMillis));
+        if (unfinished > 0) {
+            LOGGER.warning(unfinished + " sessions still running after " + settleMillis + "ms, counted as errors");
+        }
+        return unfinished;
+    }
+
+    /**
+     * Waits for every session started so far, however long they take, and starts the next interval after them, so
+     * nothing they record lands in the next step.
+     */
+    private void drain() {
+        if (activeSessions.get() > 0) {
+            LOGGER.info("Waiting for " + activeSessions.get() + " sessions to end before the next step...");
+            awaitSessions(Long.MAX_VALUE);
+        }
+        last = metrics.snapshot();
+        exporter.export(last);
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime} to give up at, or {@link Long#MAX_VALUE} to wait for every session
+     * @return the number of sessions still running
+     */
+    private int awaitSessions(long deadline) {
+        try {
+            while (activeSessions.get() > 0 && (deadline == Long.MAX_VALUE || System.nanoTime() - deadline < 0)) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return activeSessions.get();
+    }
+
+    public List<Step> steps() {
+        return steps;
+    }
+}
@@ -0,0 +1,141 @@
+package com.optiva;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forward-only cursor over a {@link CaptureWriter} file. The file is mapped a window at a time and messages are only
+ * copied out on request, so captures of any size are read without loading them into the heap.
+ * {@link #main} dumps a capture as one line per message.
+ */
+public final class CaptureReader implements Closeable {
+    private static final long WINDOW = 256L << 20;
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long next = CaptureWriter.FILE_HEADER;
+    private int offset;
+    private long timestampNanos;
+    private int direction;
+    private int length;
+
+    public CaptureReader(Path path) throws IOException {
+        this(path, WINDOW);
+    }
+
+    /**
+     * @param windowSize bytes mapped at a time; a message larger than this gets a window of its own
+     */
+    CaptureReader(Path path, long windowSize) throws IOException {
+        this.windowSize = windowSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        if (size >= CaptureWriter.FILE_HEADER) {
+            map(0, CaptureWriter.FILE_HEADER);
+        }
+        if (window == null || window.getInt(0) != CaptureWriter.MAGIC) {
+            channel.close();
+            throw new IOException("Not a capture file: " + path);
+        }
+        if (window.getInt(4) != CaptureWriter.VERSION) {
+            channel.close();
+            throw new IOException("Unsupported capture version " + window.getInt(4) + ": " + path);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        AvpCursor avps = new AvpCursor();
+        try (CaptureReader capture = new CaptureReader(Path.of(args[0]))) {
+            while (capture.next()) {
+                byte[] message = capture.message();
+                StringBuilder line = new StringBuilder();
+                line.append(String.format("%12.6f %s cmd=%d hbh=%08x",
+                                          capture.timestampNanos() / 1e9,
+                                          capture.isOutbound() ? ">" : "<",
+                                          AvpCursor.readInt(message, 4) & 0xFFFFFF,
+                                          DiameterIds.hopByHopId(message, 0)));
+                avps.wrapMessage(message, 0);
+                while (avps.next()) {
+                    switch (avps.code()) {
+                        case AvpCursor.SESSION_ID -> line.append(" session=").append(avps.stringValue());
+                        case AvpCursor.CC_REQUEST_NUMBER -> line.append(" number=").append(avps.intValue());
+                        case AvpCursor.RESULT_CODE -> line.append(" result=").append(avps.intValue());
+                        default -> {
+                        }
+                    }
+                }
+                System.out.println(line);
+            }
+        }
+    }
+
+    /**
+     * Moves to the next message.
+     *
+     * @return false at the end of the capture, or at a record the writer did not finish
+     */
+    public boolean next() throws IOException {
+        long start = next;
+        int minimum = CaptureWriter.RECORD_HEADER + DiameterFrameDecoder.HEADER_LENGTH;
+        if (start + minimum > size) {
+            return false;
+        }
+        map(start, minimum);
+        offset = (int) (start - windowStart);
+        int messageLength = window.getInt(offset + CaptureWriter.RECORD_HEADER) & 0xFFFFFF;
+        if (messageLength < DiameterFrameDecoder.HEADER_LENGTH
+            || start + CaptureWriter.RECORD_HEADER + messageLength > size) {
+            return false;
+        }
+        map(start, CaptureWriter.RECORD_HEADER + messageLength);
+        offset = (int) (start - windowStart);
+        timestampNanos = window.getLong(offset);
+        direction = window.getInt(offset + 8);
+        length = messageLength;
+        next = start + CaptureWriter.RECORD_HEADER + messageLength;
+        return true;
+    }
+
+    /**
+     * @return nanoseconds between the start of the capture and this message
+     */
+    public long timestampNanos() {
+        return timestampNanos;
+    }
+
+    public boolean isOutbound() {
+        return direction == CaptureWriter.OUTBOUND;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return a copy of the current message
+     */
+    public byte[] message() {
+        byte[] message = new byte[length];
+        window.get(offset + CaptureWriter.RECORD_HEADER, message);
+        return message;
+    }
+
+    private void map(long start, int length) throws IOException {
+        if (window != null && start >= windowStart && start + length <= windowStart + window.capacity()) {
+            return;
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(Math.max(windowSize, length), size - start));
+        windowStart = start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
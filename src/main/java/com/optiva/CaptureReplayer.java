@@ -0,0 +1,165 @@
+package com.optiva;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import static com.optiva.DiameterLoadRunner.ANSWER_TIMEOUT;
+
+/**
+ * Sends the CCRs of a capture again, at their recorded pace scaled by a speed factor or as fast as the in-flight limit
+ * allows. Hop-by-hop and end-to-end ids are renewed and every captured session gets a fresh Session-Id of the same
+ * length, so a capture can be replayed any number of times against the same OCS. Latency is measured from each
+ * request's scheduled send time.
+ */
+public class CaptureReplayer implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(CaptureReplayer.class.getSimpleName());
+    private static final int CC_REQUEST_TYPE = 416;
+    private static final int SESSION_SUFFIX = 16;
+    private final DiameterLoadRunner loadRunner;
+    private final LoadMetrics metrics;
+    private final Path path;
+    private final double speed;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final AvpCursor avps = new AvpCursor();
+    private final Map<String, Long> sessions = new HashMap<>();
+    private long nextSession = System.currentTimeMillis() << 20;
+
+    /**
+     * @param speed 1 replays at the recorded pace, 10 ten times faster; 0 or less sends as fast as possible
+     */
+    public CaptureReplayer(DiameterLoadRunner loadRunner,
+                           LoadMetrics metrics,
+                           Path path,
+                           double speed,
+                           int maxInFlight) {
+        this.loadRunner = loadRunner;
+        this.metrics = metrics;
+        this.path = path;
+        this.speed = speed;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public void run() {
+        long replayed = 0;
+        try (CaptureReader capture = new CaptureReader(path)) {
+            LOGGER.info("Replaying " + path + (speed > 0 ? " at " + speed + "x" : " at maximum speed"));
+            long startNanos = System.nanoTime();
+            long firstTimestamp = -1;
+            while (capture.next()) {
+                if (!capture.isOutbound()) {
+                    continue;
+                }
+                if (firstTimestamp < 0) {
+                    firstTimestamp = capture.timestampNanos();
+                }
+                long intended = System.nanoTime();
+                if (speed > 0) {
+                    intended = startNanos + (long) ((capture.timestampNanos() - firstTimestamp) / speed);
+                    OpenLoopScheduler.sleepUntil(intended);
+                }
+                inFlight.acquire();
+                byte[] request = capture.message();
+                send(request, rewrite(request), intended);
+                replayed++;
+            }
+            boolean ignored = inFlight.tryAcquire(maxInFlight, ANSWER_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Replayed " + replayed + " requests");
+    }
+
+    /**
+     * Renews the ids of {@code request} in place.
+     *
+     * @return the request's type by CC-Request-Type
+     */
+    RequestType rewrite(byte[] request) {
+        request[4] &= ~DiameterFrameDecoder.RETRANSMITTED;
+        putInt(request, 16, DiameterIds.nextEndToEndId());
+        int requestType = 0;
+        int sessionOffset = -1;
+        int sessionLength = 0;
+        avps.wrapMessage(request, 0);
+        while (avps.next()) {
+            if (avps.code() == AvpCursor.SESSION_ID) {
+                sessionOffset = avps.dataOffset();
+                sessionLength = avps.dataLength();
+            } else if (avps.code() == CC_REQUEST_TYPE) {
+                requestType = avps.intValue();
+            }
+        }
+        if (sessionOffset >= 0) {
+            String original = new String(request, sessionOffset, sessionLength, StandardCharsets.UTF_8);
+            Long session = requestType == 3 ? sessions.remove(original) : sessions.get(original);
+            if (session == null) {
+                session = nextSession++;
+                if (requestType != 3) {
+                    sessions.put(original, session);
+                }
+            }
+            int digits = Math.min(sessionLength, SESSION_SUFFIX);
+            putHex(request, sessionOffset + sessionLength - digits, session, digits);
+        }
+        return switch (requestType) {
+            case 1 -> RequestType.CCR_I;
+            case 3 -> RequestType.CCR_T;
+            default -> RequestType.CCR_U;
+        };
+    }
+
+    private void send(byte[] request, RequestType type, long intended) {
+        int hopByHopId = DiameterIds.nextHopByHopId();
+        putInt(request, 12, hopByHopId);
+        metrics.requestSent(type);
+        DiameterConnection connection;
+        try {
+            connection = loadRunner.nextConnection();
+        } catch (SocketException e) {
+            metrics.requestFailed(type);
+            inFlight.release();
+            return;
+        }
+        connection.send(hopByHopId, request)
+                .orTimeout(ANSWER_TIMEOUT, TimeUnit.MILLISECONDS)
+                .whenComplete((cca, e) -> {
+                    inFlight.release();
+                    if (e instanceof TimeoutException) {
+                        connection.abandon(hopByHopId);
+                        metrics.requestTimedOut(type);
+                    } else if (e != null) {
+                        metrics.requestFailed(type);
+                    } else {
+                        metrics.answerReceived(type, cca.resultCode(), System.nanoTime() - intended);
+                    }
+                });
+    }
+
+    private static void putInt(byte[] message, int offset, int value) {
+        message[offset] = (byte) (value >>> 24);
+        message[offset + 1] = (byte) (value >>> 16);
+        message[offset + 2] = (byte) (value >>> 8);
+        message[offset + 3] = (byte) value;
+    }
+
+    private static void putHex(byte[] message, int offset, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            message[offset + i] = (byte) Character.forDigit((int) (value & 0xF), 16);
+            value >>>= 4;
+        }
+    }
+}
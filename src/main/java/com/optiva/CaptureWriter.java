@@ -0,0 +1,135 @@
+package com.optiva;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Appends timestamped Diameter messages to a capture file through memory-mapped regions, so recording costs a copy
+ * into page cache and no write call per message. The file is an 8-byte header (magic, version) followed by records
+ * of a 12-byte header (nanoseconds since the capture started, direction) and the message as sent on the wire.
+ * While a capture is {@link #start started}, the transports pass every CCR and CCA they handle through
+ * {@link #recordRequest} and {@link #recordAnswer}.
+ */
+public final class CaptureWriter implements Closeable {
+    static final int MAGIC = 0x44434150;
+    static final int VERSION = 1;
+    static final int FILE_HEADER = 8;
+    static final int RECORD_HEADER = 12;
+    static final int OUTBOUND = 0;
+    static final int INBOUND = 1;
+    private static final Logger LOGGER = Logger.getLogger(CaptureWriter.class.getSimpleName());
+    private static final long REGION = 64L << 20;
+    private static volatile CaptureWriter active;
+    private final Path path;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long startNanos = System.nanoTime();
+    private final long regionSize;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long records;
+
+    public CaptureWriter(Path path) throws IOException {
+        this(path, REGION);
+    }
+
+    /**
+     * @param regionSize bytes mapped at a time; a message larger than this gets a region of its own
+     */
+    CaptureWriter(Path path, long regionSize) throws IOException {
+        this.path = path;
+        this.regionSize = regionSize;
+        this.channel = FileChannel.open(path,
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.TRUNCATE_EXISTING,
+                                        StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, regionSize);
+        region.putInt(MAGIC);
+        region.putInt(VERSION);
+    }
+
+    public static void start(Path path) {
+        try {
+            active = new CaptureWriter(path);
+            LOGGER.info("Capturing CCRs and CCAs to " + path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void stop() {
+        CaptureWriter writer = active;
+        active = null;
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    public static void recordRequest(byte[] message) {
+        CaptureWriter writer = active;
+        if (writer != null) {
+            writer.append(OUTBOUND, message, 0);
+        }
+    }
+
+    public static void recordAnswer(byte[] buffer, int offset) {
+        CaptureWriter writer = active;
+        if (writer != null) {
+            writer.append(INBOUND, buffer, offset);
+        }
+    }
+
+    public void append(int direction, byte[] buffer, int offset) {
+        int length = DiameterFrameDecoder.messageLength(buffer, offset);
+        long now = System.nanoTime() - startNanos;
+        lock.lock();
+        try {
+            if (region == null) {
+                return;
+            }
+            if (region.remaining() < RECORD_HEADER + length) {
+                long position = regionStart + region.position();
+                region = channel.map(FileChannel.MapMode.READ_WRITE,
+                                     position,
+                                     Math.max(regionSize, RECORD_HEADER + length));
+                regionStart = position;
+            }
+            region.putLong(now);
+            region.putInt(direction);
+            region.put(buffer, offset, length);
+            records++;
+        } catch (IOException e) {
+            LOGGER.severe("Capture stopped | cause:" + e.getMessage());
+            region = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (region != null) {
+                long size = regionStart + region.position();
+                region.force();
+                region = null;
+                channel.truncate(size);
+                LOGGER.info("Captured " + records + " messages, " + size + " bytes to " + path);
+            }
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.severe("Unable to close capture | cause:" + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
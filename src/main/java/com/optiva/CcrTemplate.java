@@ -0,0 +1,212 @@
+package com.optiva;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A CCR encoded once with placeholder values, plus the offsets of the fields that change per message.
+ * Rendering patches those fields in place, so sending a CCR neither builds an AVP tree nor allocates.
+ * Each instance owns its buffer; prototypes are shared per request type and Session-Id/MSISDN length.
+ */
+public class CcrTemplate {
+    private static final Map<String, CcrTemplate> PROTOTYPES = new ConcurrentHashMap<>();
+    private static final long NTP_OFFSET = 2208988800L;
+    public static final String SESSION_PREFIX = "session-";
+    public static final int SESSION_KEY_LENGTH = SESSION_PREFIX.length() + 19;
+    private final byte[] message;
+    private final int sessionIdOffset;
+    private final int sessionIdLength;
+    private final int msisdnOffset;
+    private final int msisdnLength;
+    private final int requestNumberOffset;
+    private final int requestNumberLength;
+    private final int ratingGroupOffset;
+    private final int ratingGroupLength;
+    private final int timestampOffset;
+    private final int totalOctetsOffset;
+    private final int totalOctetsLength;
+    private final int inputOctetsOffset;
+    private final int inputOctetsLength;
+    private final int outputOctetsOffset;
+    private final int outputOctetsLength;
+
+    private CcrTemplate(byte[] message) {
+        int[] fields = new int[16];
+        Arrays.fill(fields, -1);
+        AvpCursor avps = new AvpCursor().wrapMessage(message, 0);
+        locate(avps, new AvpCursor(), fields);
+        this.message = message;
+        this.sessionIdOffset = required(fields, 0, AvpCursor.SESSION_ID);
+        this.sessionIdLength = fields[1];
+        this.msisdnOffset = required(fields, 2, AvpCursor.SUBSCRIPTION_ID_DATA);
+        this.msisdnLength = fields[3];
+        this.requestNumberOffset = required(fields, 4, AvpCursor.CC_REQUEST_NUMBER);
+        this.requestNumberLength = fields[5];
+        this.ratingGroupOffset = required(fields, 6, AvpCursor.RATING_GROUP);
+        this.ratingGroupLength = fields[7];
+        this.timestampOffset = fields[8];
+        this.totalOctetsOffset = fields[10];
+        this.totalOctetsLength = fields[11];
+        this.inputOctetsOffset = fields[12];
+        this.inputOctetsLength = fields[13];
+        this.outputOctetsOffset = fields[14];
+        this.outputOctetsLength = fields[15];
+    }
+
+    private CcrTemplate(CcrTemplate prototype) {
+        this.message = prototype.message.clone();
+        this.sessionIdOffset = prototype.sessionIdOffset;
+        this.sessionIdLength = prototype.sessionIdLength;
+        this.msisdnOffset = prototype.msisdnOffset;
+        this.msisdnLength = prototype.msisdnLength;
+        this.requestNumberOffset = prototype.requestNumberOffset;
+        this.requestNumberLength = prototype.requestNumberLength;
+        this.ratingGroupOffset = prototype.ratingGroupOffset;
+        this.ratingGroupLength = prototype.ratingGroupLength;
+        this.timestampOffset = prototype.timestampOffset;
+        this.totalOctetsOffset = prototype.totalOctetsOffset;
+        this.totalOctetsLength = prototype.totalOctetsLength;
+        this.inputOctetsOffset = prototype.inputOctetsOffset;
+        this.inputOctetsLength = prototype.inputOctetsLength;
+        this.outputOctetsOffset = prototype.outputOctetsOffset;
+        this.outputOctetsLength = prototype.outputOctetsLength;
+    }
+
+    public static CcrTemplate of(RequestType type, int sessionIdLength, int msisdnLength) {
+        String key = type + ":" + sessionIdLength + ":" + msisdnLength;
+        return new CcrTemplate(PROTOTYPES.computeIfAbsent(key, k -> compile(type, sessionIdLength, msisdnLength)));
+    }
+
+    private static CcrTemplate compile(RequestType type, int sessionIdLength, int msisdnLength) {
+        return new CcrTemplate(DiameterClient.encode(type,
+                                                     "x".repeat(sessionIdLength),
+                                                     "0".repeat(msisdnLength),
+                                                     0,
+                                                     0,
+                                                     0));
+    }
+
+    public boolean fits(int sessionIdLength, int msisdnLength) {
+        return this.sessionIdLength == sessionIdLength && this.msisdnLength == msisdnLength;
+    }
+
+    public byte[] render(int hopByHopId,
+                         int endToEndId,
+                         String sessionId,
+                         String msisdn,
+                         int requestNumber,
+                         int ratingGroup,
+                         long chargeValue) {
+        putAscii(sessionIdOffset, sessionId);
+        putAscii(msisdnOffset, msisdn);
+        return render(hopByHopId, endToEndId, requestNumber, ratingGroup, chargeValue);
+    }
+
+    /**
+     * Renders without strings: the Session-Id is {@link #SESSION_PREFIX} and the zero-padded key, the MSISDN its
+     * decimal digits. Templates for this form are made with {@link #SESSION_KEY_LENGTH} and
+     * {@link #decimalLength}.
+     */
+    public byte[] render(int hopByHopId,
+                         int endToEndId,
+                         long sessionKey,
+                         long msisdn,
+                         int requestNumber,
+                         int ratingGroup,
+                         long chargeValue) {
+        putAscii(sessionIdOffset, SESSION_PREFIX);
+        putDigits(sessionIdOffset + SESSION_PREFIX.length(), sessionIdLength - SESSION_PREFIX.length(), sessionKey);
+        putDigits(msisdnOffset, msisdnLength, msisdn);
+        return render(hopByHopId, endToEndId, requestNumber, ratingGroup, chargeValue);
+    }
+
+    private byte[] render(int hopByHopId, int endToEndId, int requestNumber, int ratingGroup, long chargeValue) {
+        message[4] &= ~DiameterFrameDecoder.RETRANSMITTED;
+        putUnsigned(12, 4, Integer.toUnsignedLong(hopByHopId));
+        putUnsigned(16, 4, Integer.toUnsignedLong(endToEndId));
+        putUnsigned(requestNumberOffset, requestNumberLength, requestNumber);
+        putUnsigned(ratingGroupOffset, ratingGroupLength, ratingGroup);
+        if (timestampOffset >= 0) {
+            putUnsigned(timestampOffset, 4, System.currentTimeMillis() / 1000 + NTP_OFFSET);
+        }
+        if (totalOctetsOffset >= 0) {
+            long inputValue = (long) (chargeValue * 0.1);
+            putUnsigned(totalOctetsOffset, totalOctetsLength, chargeValue);
+            putUnsigned(inputOctetsOffset, inputOctetsLength, inputValue);
+            putUnsigned(outputOctetsOffset, outputOctetsLength, chargeValue - inputValue);
+        }
+        return message;
+    }
+
+    public int length() {
+        return message.length;
+    }
+
+    private void putAscii(int offset, String value) {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            message[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    public static int decimalLength(long value) {
+        int length = 1;
+        while (value >= 10) {
+            value /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    private void putDigits(int offset, int length, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value cannot be rendered as digits: " + value);
+        }
+        long remaining = value;
+        for (int i = length - 1; i >= 0; i--) {
+            message[offset + i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        if (remaining != 0) {
+            throw new IllegalArgumentException(value + " does not fit in " + length + " digits");
+        }
+    }
+
+    private void putUnsigned(int offset, int length, long value) {
+        for (int i = length - 1; i >= 0; i--) {
+            message[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static void locate(AvpCursor avps, AvpCursor child, int[] fields) {
+        while (avps.next()) {
+            switch (avps.code()) {
+                case AvpCursor.SESSION_ID -> set(fields, 0, avps);
+                case AvpCursor.SUBSCRIPTION_ID_DATA -> set(fields, 2, avps);
+                case AvpCursor.CC_REQUEST_NUMBER -> set(fields, 4, avps);
+                case AvpCursor.RATING_GROUP -> set(fields, 6, avps);
+                case AvpCursor.EVENT_TIMESTAMP -> set(fields, 8, avps);
+                case AvpCursor.CC_TOTAL_OCTETS -> set(fields, 10, avps);
+                case AvpCursor.CC_INPUT_OCTETS -> set(fields, 12, avps);
+                case AvpCursor.CC_OUTPUT_OCTETS -> set(fields, 14, avps);
+                case AvpCursor.SUBSCRIPTION_ID, AvpCursor.MULTIPLE_SERVICES_CREDIT_CONTROL,
+                     AvpCursor.USED_SERVICE_UNIT -> locate(avps.enter(child), new AvpCursor(), fields);
+                default -> {
+                }
+            }
+        }
+    }
+
+    private static void set(int[] fields, int index, AvpCursor avp) {
+        fields[index] = avp.dataOffset();
+        fields[index + 1] = avp.dataLength();
+    }
+
+    private static int required(int[] fields, int index, int avpCode) {
+        if (fields[index] < 0) {
+            throw new IllegalStateException("AVP " + avpCode + " missing from CCR template");
+        }
+        return fields[index];
+    }
+}
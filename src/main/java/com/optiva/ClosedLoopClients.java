@@ -0,0 +1,80 @@
+package com.optiva;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * The closed-loop client threads. Each runs one session after another, so the rate is set by how many of them run.
+ * {@link #resize} adds clients, and threads for them, or cancels clients to follow the rate and interval of a
+ * {@link LoadControl}. The fraction of a client left over is made up by skipping sessions at random.
+ */
+public class ClosedLoopClients {
+    private final ScheduledThreadPoolExecutor service;
+    private final LoadControl control;
+    private final Supplier<Runnable> client;
+    private final IntConsumer onGrow;
+    private final Deque<ScheduledFuture<?>> clients = new ArrayDeque<>();
+    private volatile double capacityTps;
+    private boolean stopped;
+
+    /**
+     * @param client creates the session loop of one client
+     * @param onGrow told the new number of clients whenever clients are added
+     */
+    public ClosedLoopClients(ScheduledThreadPoolExecutor service,
+                             LoadControl control,
+                             Supplier<Runnable> client,
+                             IntConsumer onGrow) {
+        this.service = service;
+        this.control = control;
+        this.client = client;
+        this.onGrow = onGrow;
+    }
+
+    /**
+     * Starts or cancels clients until as many run as the current rate needs. New clients are spread over one
+     * interval instead of starting together.
+     */
+    public synchronized void resize() {
+        if (stopped) {
+            return;
+        }
+        int callSleep = control.callSleep();
+        int target = control.concurrency();
+        int added = target - clients.size();
+        if (added > 0) {
+            service.setCorePoolSize(Math.max(service.getCorePoolSize(), target + 2));
+            onGrow.accept(target);
+            for (int i = 0; i < added; i++) {
+                Runnable session = client.get();
+                clients.add(service.scheduleAtFixedRate(() -> {
+                    if (control.admit(capacityTps)) {
+                        session.run();
+                    }
+                }, (long) i * callSleep / added, 1000, TimeUnit.MILLISECONDS));
+            }
+        }
+        while (clients.size() > target) {
+            clients.removeLast().cancel(false);
+        }
+        capacityTps = clients.size() * 1000.0 / Math.max(callSleep, 1);
+    }
+
+    public synchronized int size() {
+        return clients.size();
+    }
+
+    /**
+     * Cancels every client; sessions already running complete.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        clients.forEach(c -> c.cancel(false));
+        clients.clear();
+    }
+}
@@ -0,0 +1,115 @@
+package com.optiva;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Opens connections in the background on a bounded number of threads. A failed attempt is rescheduled with jittered
+ * exponential backoff instead of holding its thread, so one unreachable peer does not delay the others.
+ */
+public class ConnectionOpener implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionOpener.class.getSimpleName());
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private volatile boolean closed;
+
+    public ConnectionOpener(int parallelism, long minBackoffMillis, long maxBackoffMillis) {
+        this.executor = Executors.newFixedThreadPool(parallelism, Thread.ofVirtual().name("connect-", 0).factory());
+        this.timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                                                                        .daemon()
+                                                                        .name("connect-backoff")
+                                                                        .factory());
+        this.minBackoff = minBackoffMillis;
+        this.maxBackoff = maxBackoffMillis;
+    }
+
+    /**
+     * Keeps calling {@code connect} until it succeeds or this opener is closed, then hands the connection over.
+     */
+    public <T extends Closeable> void open(String target, Callable<T> connect, Consumer<T> onOpen) {
+        attempt(target, connect, onOpen, 0);
+    }
+
+    private <T extends Closeable> void attempt(String target, Callable<T> connect, Consumer<T> onOpen, int attempt) {
+        try {
+            executor.execute(() -> {
+                T connection;
+                try {
+                    connection = connect.call();
+                } catch (Exception e) {
+                    if (attempt == 0) {
+                        LOGGER.warning("Unable to connect to " + target + ", retrying | cause:" + e.getMessage());
+                    }
+                    retry(target, connect, onOpen, attempt);
+                    return;
+                }
+                if (closed) {
+                    closeQuietly(connection);
+                } else {
+                    onOpen.accept(connection);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //ignored
+        }
+    }
+
+    private <T extends Closeable> void retry(String target, Callable<T> connect, Consumer<T> onOpen, int attempt) {
+        try {
+            timer.schedule(() -> attempt(target, connect, onOpen, attempt + 1),
+                           backoffMillis(attempt),
+                           TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //ignored
+        }
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoff, minBackoff << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Blocks until {@code required} of {@code total} connections are open, logging progress while waiting.
+     */
+    public static void awaitReady(IntSupplier open, int total, int required) throws InterruptedException {
+        required = Math.min(required, total);
+        long nextLog = System.nanoTime();
+        int ready;
+        while ((ready = open.getAsInt()) < required) {
+            if (System.nanoTime() - nextLog >= 0) {
+                LOGGER.info("Connections ready: " + ready + "/" + total + ", waiting for " + required);
+                nextLog += TimeUnit.SECONDS.toNanos(5);
+            }
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        LOGGER.info("Connections ready: " + ready + "/" + total);
+    }
+
+    static void closeQuietly(Closeable connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+}
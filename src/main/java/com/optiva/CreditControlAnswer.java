@@ -0,0 +1,4 @@
+package com.optiva;
+
+public record CreditControlAnswer(int resultCode, long grantedOctets, String errorMessage) {
+}
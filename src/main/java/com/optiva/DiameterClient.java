@@ -4,11 +4,10 @@ import com.optiva.charging.openapi.diameter.DiameterCommandCode;
 import com.optiva.charging.openapi.diameter.DiameterMessage;
 import com.optiva.charging.openapi.diameter.DiameterMessageHeader;
 import com.optiva.charging.openapi.diameter.avp.Avp;
-import com.optiva.charging.openapi.diameter.avp.AvpCode;
-import com.optiva.charging.openapi.diameter.avp.AvpCodeTable;
 
-import java.net.Socket;
+import java.io.IOException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.time.ZonedDateTime;
 import java.util.List;
@@ -16,11 +15,17 @@ import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static com.optiva.DiameterLoadRunner.CALL_SLEEP;
+import static com.optiva.DiameterLoadRunner.ANSWER_TIMEOUT;
+import static com.optiva.DiameterLoadRunner.UPDATES;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.AUTH_APPLICATION_ID;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.CALLED_STATION_ID;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.CC_INPUT_OCTETS;
@@ -31,7 +36,6 @@ import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.CC_TOTAL
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.DESTINATION_HOST;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.DESTINATION_REALM;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.EVENT_TIMESTAMP;
-import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.GRANTED_SERVICE_UNIT;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.MULTIPLE_SERVICES_CREDIT_CONTROL;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.MULTIPLE_SERVICES_INDICATOR;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.ORIGIN_HOST;
@@ -51,7 +55,8 @@ import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.TGPP.TGPP_US
 import static jakarta.xml.bind.DatatypeConverter.parseHexBinary;
 
 public class DiameterClient implements Runnable {
-    private static final int[] ratingGroups = new int[]{16, 32};
+    private static final int MAX_FAILOVERS = 3;
+    static final int[] ratingGroups = new int[]{16, 32};
     private static final String SERVICE_ID = "32251@3gpp.org";
     private static final Avp SERVICE_CONTEXT_ID_AVP = SERVICE_CONTEXT_ID.createAvp(SERVICE_ID);
     private static final Avp ORIGIN_HOST_AVP = ORIGIN_HOST.createAvp("diameterclient");
@@ -61,141 +66,254 @@ public class DiameterClient implements Runnable {
     private static final Avp AUTH_APPLICATION_ID_AVP = AUTH_APPLICATION_ID.createAvp(4);
     private static final Avp TYPE_CCR_AVP = CC_REQUEST_TYPE.createAvp(1);
     private static final Avp MULTIPLE_SERVICES_INDICATOR_AVP = MULTIPLE_SERVICES_INDICATOR.createAvp(1);
+    private static final ZonedDateTime NOW = ZonedDateTime.now();
     private static final DiameterMessageHeader DIAMETER_MESSAGE_HEADER = new DiameterMessageHeader.Builder(
             DiameterCommandCode.CC).setApplicationId(4)
-            .setEndToEndId(0x87b09775L)
-            .setHopByHopId(0x00001c20)
+            .setEndToEndId(0)
+            .setHopByHopId(0)
             .setRequest()
             .setVersion((byte) 1)
             .build();
-    private static final String CCR_T = "CCR-t";
-    private static final String CCR_U = "CCR-u";
-    private static final String CCR_I = "CCR-i";
-    private static final ZonedDateTime NOW = ZonedDateTime.now();
     /////////////////////////////////////////////////////
-    private final byte[] BYTE_ARR_BUFFER = new byte[4096];
-    private final ByteBuffer BYTE_BUFFER = ByteBuffer.allocate(4096);
+    private final AnswerDecoder answers = new AnswerDecoder();
+    private final CcrTemplate[] templates = new CcrTemplate[RequestType.values().length];
     private final DiameterLoadRunner loadRunner;
-    private final BlockingQueue<Socket> socketQueue;
-    private final AtomicLong counter;
-    private final long subscriberRangeStart;
-    private final int subscriberCount;
+    private final BlockingQueue<FramedSocket> socketQueue;
+    private final LoadMetrics metrics;
+    private final SubscriberKeyspace subscribers;
     private Logger logger;
     private int requestNumber = 0;
     private long grantLimit;
     private int ratingGroup;
+    private int hopByHopId;
+    private DiameterConnection connection;
+    private long intendedSendTime;
 
     public DiameterClient(DiameterLoadRunner loadRunner,
-                          BlockingQueue<Socket> socketQueue,
-                          AtomicLong counter,
-                          long subscriberRangeStart,
-                          int subscriberCount) {
+                          BlockingQueue<FramedSocket> socketQueue,
+                          LoadMetrics metrics,
+                          SubscriberKeyspace subscribers) {
         this.loadRunner = loadRunner;
         this.socketQueue = socketQueue;
-        this.counter = counter;
-        this.subscriberRangeStart = subscriberRangeStart;
-        this.subscriberCount = subscriberCount;
+        this.metrics = metrics;
+        this.subscribers = subscribers;
     }
 
     @Override
     public void run() {
-        Socket ref = null;
+        runSession(System.nanoTime());
+    }
+
+    public void runSession(long intendedStart) {
+        long subscriber = subscribers.acquire();
+        if (subscriber < 0) {
+            return;
+        }
+        FramedSocket ref = null;
         String session = "session-" + UUID.randomUUID();
         requestNumber = 0;
-        Random random = new Random();
+        Random random = ThreadLocalRandom.current();
         ratingGroup = ratingGroups[random.nextInt(ratingGroups.length)];
-        String msisdn = Long.toString(subscriberRangeStart + random.nextLong(subscriberCount) + 1);
+        String msisdn = Long.toString(subscriber);
         logger = Logger.getLogger(Thread.currentThread().getName());
         try {
-            Socket socket;
-            ref = socket = socketQueue.take();
-            long start = System.currentTimeMillis();
-            boolean success = sendMsgAndWaitForAnswer(socket, ccrI(session, msisdn), CCR_I);
-            sleep(CALL_SLEEP - System.currentTimeMillis() + start);
-            ratingGroup = ratingGroups[random.nextInt(ratingGroups.length)];
-            start = System.currentTimeMillis();
-            success = success && sendMsgAndWaitForAnswer(socket, ccrU(session, msisdn, getChargeValue()), CCR_U);
-            sleep(CALL_SLEEP - System.currentTimeMillis() + start);
-            ratingGroup = ratingGroups[random.nextInt(ratingGroups.length)];
-            start = System.currentTimeMillis();
-            success = success && sendMsgAndWaitForAnswer(socket, ccrU(session, msisdn, getChargeValue()), CCR_U);
-            sleep(CALL_SLEEP - System.currentTimeMillis() + start);
+            BiPredicate<byte[], RequestType> exchange;
+            if (loadRunner.isMultiplexed()) {
+                connection = null;
+                exchange = this::sendMsgAndWaitForAnswer;
+            } else {
+                FramedSocket socket;
+                ref = socket = socketQueue.take();
+                exchange = (req, type) -> sendMsgAndWaitForAnswer(socket, req, type);
+            }
+            intendedSendTime = intendedStart;
+            boolean success = exchange.test(ccrI(session, msisdn), RequestType.CCR_I);
+            pace();
+            for (int i = 0; i < UPDATES; i++) {
+                ratingGroup = ratingGroups[random.nextInt(ratingGroups.length)];
+                success = success && exchange.test(ccrU(session, msisdn, getChargeValue()), RequestType.CCR_U);
+                pace();
+            }
             ratingGroup = ratingGroups[random.nextInt(ratingGroups.length)];
-            start = System.currentTimeMillis();
-            success = success && sendMsgAndWaitForAnswer(socket, ccrT(session, msisdn, getChargeValue()), CCR_T);
-            sleep(CALL_SLEEP - System.currentTimeMillis() + start);
+            success = success && exchange.test(ccrT(session, msisdn, getChargeValue()), RequestType.CCR_T);
+            if (!loadRunner.isOpenLoop()) {
+                pace();
+            }
         } catch (Exception e) {
-            if (e.getCause() instanceof SocketException) {
-                logger.severe("Socket closed, reconnecting | cause:" + e.getMessage());
-                ref = loadRunner.initializeSocket();
+            if (e.getCause() instanceof IOException && ref != null) {
+                logger.severe("Socket closed, replacing | cause:" + e.getMessage());
+                metrics.reconnected();
+                loadRunner.replaceSocket(ref);
+                ref = null;
             } else {
                 logger.log(Level.SEVERE, "Unable to complete flow", e);
             }
         } finally {
+            subscribers.release(subscriber);
             if (ref != null) {
                 socketQueue.add(ref);
             }
         }
     }
 
+    private void pace() throws InterruptedException {
+        int callSleep = loadRunner.control().callSleep();
+        if (loadRunner.isOpenLoop()) {
+            intendedSendTime += TimeUnit.MILLISECONDS.toNanos(callSleep);
+            OpenLoopScheduler.sleepUntil(intendedSendTime);
+        } else {
+            sleep(callSleep - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - intendedSendTime));
+            intendedSendTime = System.nanoTime();
+        }
+    }
+
     private void sleep(long l) throws InterruptedException {
         Thread.sleep(l <= 5
                      ? 10
                      : l - 5);
     }
 
-    private long getChargeValue() {
+    static long getChargeValue() {
         return 1000;
         //        return random.nextLong(grantLimit / 2, grantLimit) + 1;
     }
 
-    private boolean sendMsgAndWaitForAnswer(Socket socket, byte[] req, String msgName) {
+    private boolean sendMsgAndWaitForAnswer(FramedSocket socket, byte[] req, RequestType type) {
+        metrics.requestSent(type);
         try {
-            socket.getOutputStream().write(req);
+            CaptureWriter.recordRequest(req);
+            socket.write(req);
             if (logger.isLoggable(Level.FINE)) {
-                logger.fine(msgName + " sent... ");
+                logger.fine(type + " sent... ");
             }
-            int len;
-            DiameterMessage dm;
-            while ((len = socket.getInputStream().read(BYTE_ARR_BUFFER)) > 19) {
-                dm = new DiameterMessage(BYTE_ARR_BUFFER, len);
-                if (dm.getHeader().getCommandCode().equals(DiameterCommandCode.DW) || dm.getHeader()
-                        .getCommandCode()
-                        .equals(DiameterCommandCode.CE)) {
-                    dm.getHeader().setRequest(false);
-                    socket.getOutputStream().write(dm.convertToBytes(BYTE_BUFFER));
-                } else if (dm.getHeader().getCommandCode().equals(DiameterCommandCode.CC)) {
-                    Integer resultCode = dm.getAvp(AvpCodeTable.RFC.RESULT_CODE).getValue();
-                    if (logger.isLoggable(Level.FINE)) {
-                        String sessionId = dm.getAvp(SESSION_ID).getValue();
-                        logger.fine("Answer received. SessionId: |" + sessionId);
-                        logger.fine("Answer received. ResultCode: |" + resultCode);
-                    }
-                    if (resultCode != 2001) {
-                        String error = dm.getAvp(AvpCodeTable.RFC.ERROR_MESSAGE).getValue();
-                        logger.severe("Error(" + resultCode + ") | " + error);
-                        return false;
-                    } else if (!CCR_T.equals(msgName)) {
-                        Avp avp = dm.<Map<AvpCode, Avp>>getAvpValue(MULTIPLE_SERVICES_CREDIT_CONTROL)
-                                .get(GRANTED_SERVICE_UNIT);
-                        Map<AvpCode, Avp> gsu = avp.getValue();
-                        Avp to = gsu.get(CC_TOTAL_OCTETS);
-                        grantLimit = to.getValue();
+            while (true) {
+                DiameterFrameDecoder frame = socket.awaitFrame();
+                int commandCode = frame.commandCode();
+                if (commandCode == DiameterFrameDecoder.DEVICE_WATCHDOG
+                    || commandCode == DiameterFrameDecoder.CAPABILITIES_EXCHANGE) {
+                    if (frame.isRequest()) {
+                        socket.write(frame.answerFrame());
                     }
-                    return true;
+                    frame.skipFrame();
+                } else if (commandCode == DiameterFrameDecoder.CREDIT_CONTROL && !frame.isRequest()) {
+                    CaptureWriter.recordAnswer(frame.array(), frame.frameOffset());
+                    answers.decode(frame.array(), frame.frameOffset());
+                    frame.skipFrame();
+                    break;
                 } else {
-                    throw new RuntimeException("Failure - unexpected: " + dm);
+                    throw new RuntimeException("Failure - unexpected command: " + commandCode);
                 }
             }
-            throw new RuntimeException("Problem on received answer");
+        } catch (SocketTimeoutException e) {
+            metrics.requestTimedOut(type);
+            throw new RuntimeException(e);
         } catch (Exception e) {
+            metrics.requestFailed(type);
+            throw new RuntimeException(e);
+        }
+        int resultCode = answers.resultCode();
+        return handleAnswer(type, resultCode, answers.grantedOctets(), resultCode != 2001 ? answers.errorMessage() : null);
+    }
+
+    private boolean sendMsgAndWaitForAnswer(byte[] req, RequestType type) {
+        metrics.requestSent(type);
+        CreditControlAnswer cca;
+        try {
+            if (connection == null || !connection.isOpen() || loadRunner.isPerRequestRouting()) {
+                connection = loadRunner.nextConnection();
+            }
+            for (int failovers = 0; ; failovers++) {
+                try {
+                    cca = awaitAnswer(req, type);
+                    break;
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof SocketException) || failovers == MAX_FAILOVERS) {
+                        throw e;
+                    }
+                    logger.warning(type + " failing over | cause:" + e.getCause().getMessage());
+                    connection = loadRunner.nextConnection();
+                    req[4] |= DiameterFrameDecoder.RETRANSMITTED;
+                }
+            }
+        } catch (ExecutionException e) {
+            metrics.requestFailed(type);
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            connection.abandon(hopByHopId);
+            metrics.requestTimedOut(type);
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            metrics.requestFailed(type);
             throw new RuntimeException(e);
-        } finally {
-            counter.incrementAndGet();
         }
+        return handleAnswer(type, cca.resultCode(), cca.grantedOctets(), cca.errorMessage());
+    }
+
+    private CreditControlAnswer awaitAnswer(byte[] req, RequestType type)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        CompletableFuture<CreditControlAnswer> answer = connection.send(hopByHopId, req);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(type + " sent... ");
+        }
+        return answer.get(ANSWER_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean handleAnswer(RequestType type, int resultCode, long grantedOctets, String error) {
+        metrics.answerReceived(type, resultCode, System.nanoTime() - intendedSendTime);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Answer received. ResultCode: |" + resultCode);
+        }
+        if (resultCode != 2001) {
+            logger.severe("Error(" + resultCode + ") | " + error);
+            return false;
+        } else if (type != RequestType.CCR_T && grantedOctets >= 0) {
+            grantLimit = grantedOctets;
+        }
+        return true;
     }
 
     public byte[] ccrI(String sessionId, String msisdn) {
+        return render(RequestType.CCR_I, sessionId, msisdn, 0);
+    }
+
+    public byte[] ccrU(String sessionId, String msisdn, long chargeValue) {
+        return render(RequestType.CCR_U, sessionId, msisdn, chargeValue);
+    }
+
+    public byte[] ccrT(String sessionId, String msisdn, long chargeValue) {
+        return render(RequestType.CCR_T, sessionId, msisdn, chargeValue);
+    }
+
+    private byte[] render(RequestType type, String sessionId, String msisdn, long chargeValue) {
+        CcrTemplate template = templates[type.ordinal()];
+        if (template == null || !template.fits(sessionId.length(), msisdn.length())) {
+            templates[type.ordinal()] = template = CcrTemplate.of(type, sessionId.length(), msisdn.length());
+        }
+        hopByHopId = DiameterIds.nextHopByHopId();
+        return template.render(hopByHopId,
+                               DiameterIds.nextEndToEndId(),
+                               sessionId,
+                               msisdn,
+                               requestNumber++,
+                               ratingGroup,
+                               chargeValue);
+    }
+
+    static byte[] encode(RequestType type,
+                         String sessionId,
+                         String msisdn,
+                         int requestNumber,
+                         int ratingGroup,
+                         long chargeValue) {
+        List<Avp> avps = switch (type) {
+            case CCR_I -> ccrI(sessionId, msisdn, requestNumber, ratingGroup);
+            case CCR_U -> ccrU(sessionId, msisdn, requestNumber, ratingGroup, chargeValue);
+            case CCR_T -> ccrT(sessionId, msisdn, requestNumber, ratingGroup, chargeValue);
+        };
+        return new DiameterMessage(DIAMETER_MESSAGE_HEADER, avps).convertToBytes(ByteBuffer.allocate(4096));
+    }
+
+    private static List<Avp> ccrI(String sessionId, String msisdn, int requestNumber, int ratingGroup) {
         List<Avp> avps = List.of(ORIGIN_HOST_AVP,
                                  ORIGIN_REALM_AVP,
                                  DESTINATION_HOST_AVP,
@@ -211,12 +329,16 @@ public class DiameterClient implements Runnable {
                                                                                    RATING_GROUP.createAvp(ratingGroup))),
                                  SESSION_ID.createAvp(sessionId),
                                  EVENT_TIMESTAMP.createAvp(NOW),
-                                 CC_REQUEST_NUMBER.createAvp(requestNumber++),
+                                 CC_REQUEST_NUMBER.createAvp(requestNumber),
                                  getSubscriptionIdAvp(msisdn));
-        return new DiameterMessage(DIAMETER_MESSAGE_HEADER, avps).convertToBytes(BYTE_BUFFER);
+        return avps;
     }
 
-    public byte[] ccrU(String sessionId, String msisdn, long chargeValue) {
+    private static List<Avp> ccrU(String sessionId,
+                                  String msisdn,
+                                  int requestNumber,
+                                  int ratingGroup,
+                                  long chargeValue) {
         long inputValue = (long) (chargeValue * 0.1);
         long outputValue = chargeValue - inputValue;
         List<Avp> avps = List.of(SESSION_ID.createAvp(sessionId),
@@ -228,7 +350,7 @@ public class DiameterClient implements Runnable {
                                  AUTH_APPLICATION_ID_AVP,
                                  SERVICE_CONTEXT_ID_AVP,
                                  CC_REQUEST_TYPE.createAvp(2),
-                                 CC_REQUEST_NUMBER.createAvp(requestNumber++),
+                                 CC_REQUEST_NUMBER.createAvp(requestNumber),
                                  getSubscriptionIdAvp(msisdn),
                                  MULTIPLE_SERVICES_INDICATOR_AVP,
                                  SERVICE_INFORMATION_AVP,
@@ -250,10 +372,14 @@ public class DiameterClient implements Runnable {
                                                                                                    outputValue))),
                                                                                    REQUESTED_SERVICE_UNIT,
                                                                                    REQUESTED_SERVICE_UNIT.createAvp())));
-        return new DiameterMessage(DIAMETER_MESSAGE_HEADER, avps).convertToBytes(BYTE_BUFFER);
+        return avps;
     }
 
-    public byte[] ccrT(String sessionId, String msisdn, long chargeValue) {
+    private static List<Avp> ccrT(String sessionId,
+                                  String msisdn,
+                                  int requestNumber,
+                                  int ratingGroup,
+                                  long chargeValue) {
         long inputValue = (long) (chargeValue * 0.1);
         long outputValue = chargeValue - inputValue;
         List<Avp> avps = List.of(SESSION_ID.createAvp(sessionId),
@@ -265,7 +391,7 @@ public class DiameterClient implements Runnable {
                                  AUTH_APPLICATION_ID_AVP,
                                  SERVICE_CONTEXT_ID_AVP,
                                  CC_REQUEST_TYPE.createAvp(3),
-                                 CC_REQUEST_NUMBER.createAvp(requestNumber++),
+                                 CC_REQUEST_NUMBER.createAvp(requestNumber),
                                  getSubscriptionIdAvp(msisdn),
                                  MULTIPLE_SERVICES_INDICATOR_AVP,
                                  SERVICE_INFORMATION_AVP,
@@ -284,7 +410,7 @@ public class DiameterClient implements Runnable {
                                                                                            CC_OUTPUT_OCTETS,
                                                                                            CC_OUTPUT_OCTETS.createAvp(
                                                                                                    outputValue))))));
-        return new DiameterMessage(DIAMETER_MESSAGE_HEADER, avps).convertToBytes(BYTE_BUFFER);
+        return avps;
     }
 
     private static Avp getSubscriptionIdAvp(String msisdn) {
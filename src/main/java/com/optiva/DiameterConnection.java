@@ -0,0 +1,20 @@
+package com.optiva;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A connection shared by many sessions; answers are matched to their requests by hop-by-hop id.
+ */
+public interface DiameterConnection extends Closeable {
+    CompletableFuture<CreditControlAnswer> send(int hopByHopId, byte[] request);
+
+    void abandon(int hopByHopId);
+
+    boolean isOpen();
+
+    int inFlight();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,121 @@
+package com.optiva;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a TCP byte stream into Diameter messages using the 24-bit length in the header.
+ * Bytes are read straight into one reusable buffer and frames are handed out in place; only the trailing partial
+ * frame is moved to the front when the buffer runs out of room, and the buffer grows for messages larger than itself.
+ */
+public class DiameterFrameDecoder {
+    public static final int HEADER_LENGTH = 20;
+    public static final int CAPABILITIES_EXCHANGE = 257;
+    public static final int CREDIT_CONTROL = 272;
+    public static final int DEVICE_WATCHDOG = 280;
+    public static final int RETRANSMITTED = 0x10;
+    private static final int MIN_READ = 512;
+    private byte[] buffer;
+    private int start;
+    private int end;
+
+    public DiameterFrameDecoder(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    public static int messageLength(byte[] message, int offset) {
+        return (message[offset + 1] & 0xFF) << 16 | (message[offset + 2] & 0xFF) << 8 | message[offset + 3] & 0xFF;
+    }
+
+    public int readFrom(InputStream in) throws IOException {
+        ensureWritable(pendingFrameRemainder());
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n > 0) {
+            end += n;
+        }
+        return n;
+    }
+
+    public int reserve(int n) {
+        ensureWritable(n);
+        return end;
+    }
+
+    public void commit(int n) {
+        end += n;
+    }
+
+    public boolean hasFrame() throws IOException {
+        int available = end - start;
+        if (available < HEADER_LENGTH) {
+            return false;
+        }
+        int length = messageLength(buffer, start);
+        if (length < HEADER_LENGTH) {
+            throw new IOException("Invalid message length: " + length);
+        }
+        return available >= length;
+    }
+
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int frameOffset() {
+        return start;
+    }
+
+    public int frameLength() {
+        return messageLength(buffer, start);
+    }
+
+    public void skipFrame() {
+        start += frameLength();
+        if (start == end) {
+            start = end = 0;
+        }
+    }
+
+    public boolean isRequest() {
+        return (buffer[start + 4] & 0x80) != 0;
+    }
+
+    public int commandCode() {
+        return (buffer[start + 5] & 0xFF) << 16 | (buffer[start + 6] & 0xFF) << 8 | buffer[start + 7] & 0xFF;
+    }
+
+    public int hopByHopId() {
+        return DiameterIds.hopByHopId(buffer, start);
+    }
+
+    public byte[] answerFrame() {
+        byte[] answer = Arrays.copyOfRange(buffer, start, start + frameLength());
+        answer[4] &= 0x7F;
+        return answer;
+    }
+
+    private int pendingFrameRemainder() {
+        int available = end - start;
+        if (available < HEADER_LENGTH) {
+            return Math.max(HEADER_LENGTH - available, MIN_READ);
+        }
+        return Math.max(messageLength(buffer, start) - available, MIN_READ);
+    }
+
+    private void ensureWritable(int n) {
+        if (buffer.length - end >= n) {
+            return;
+        }
+        int pending = end - start;
+        if (pending + n > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, Integer.highestOneBit(pending + n - 1) << 1)];
+            System.arraycopy(buffer, start, larger, 0, pending);
+            buffer = larger;
+        } else {
+            System.arraycopy(buffer, start, buffer, 0, pending);
+        }
+        start = 0;
+        end = pending;
+    }
+}
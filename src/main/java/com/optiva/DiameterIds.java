@@ -0,0 +1,37 @@
+package com.optiva;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hop-by-hop and end-to-end identifier generation (RFC 6733 section 3).
+ * End-to-end ids carry the low 12 bits of the start time in their high bits so they stay unique across restarts.
+ */
+public final class DiameterIds {
+    private static final AtomicInteger HOP_BY_HOP = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+    private static final AtomicInteger END_TO_END = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+    private static final int END_TO_END_HIGH = (int) ((System.currentTimeMillis() / 1000) & 0xFFF) << 20;
+
+    private DiameterIds() {
+    }
+
+    public static int nextHopByHopId() {
+        return HOP_BY_HOP.getAndIncrement();
+    }
+
+    public static int nextEndToEndId() {
+        return END_TO_END_HIGH | (END_TO_END.getAndIncrement() & 0xFFFFF);
+    }
+
+    public static int hopByHopId(byte[] message, int offset) {
+        return readInt(message, offset + 12);
+    }
+
+    public static int endToEndId(byte[] message, int offset) {
+        return readInt(message, offset + 16);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | b[i + 3] & 0xFF;
+    }
+}
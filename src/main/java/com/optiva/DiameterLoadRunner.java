@@ -4,26 +4,34 @@ import com.optiva.charging.openapi.diameter.DiameterCommandCode;
 import com.optiva.charging.openapi.diameter.DiameterMessage;
 import com.optiva.charging.openapi.diameter.DiameterMessageHeader;
 import com.optiva.charging.openapi.diameter.avp.Avp;
-import com.optiva.charging.openapi.diameter.avp.AvpCodeTable;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
 
 import java.io.IOException;
 import java.net.Inet4Address;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.HOST_IP_ADDRESS;
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.ORIGIN_HOST;
@@ -32,58 +40,262 @@ import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.PRODUCT_
 import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.VENDOR_ID;
 
 public class DiameterLoadRunner {
-    public static final int CALL_SLEEP = 500;
+    public static final int CALL_SLEEP = Integer.getInteger("diameter.callSleep", 500);
+    public static final int UPDATES = Integer.getInteger("diameter.updates", 2);
+    public static final int ANSWER_TIMEOUT = 100000;
+    private static final String TRANSPORT = System.getProperty("diameter.transport", "socket");
+    private static final boolean CAPACITY_SEARCH = Boolean.getBoolean("diameter.search");
+    private static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("diameter.threads"))
+                                                   || CAPACITY_SEARCH;
+    private static final boolean SESSION_TABLE = Boolean.getBoolean("diameter.sessionTable");
+    private static final String REPLAY = System.getProperty("diameter.replay");
+    private static final boolean MULTIPLEXED = Boolean.getBoolean("diameter.multiplexed") || "vertx".equals(TRANSPORT)
+                                               || VIRTUAL_THREADS || SESSION_TABLE || REPLAY != null;
+    private static final int CONNECTIONS = Integer.getInteger("diameter.connections", 4);
+    private static final boolean PER_REQUEST_ROUTING = "request".equals(System.getProperty("diameter.routing"));
+    private static final boolean OPEN_LOOP = Boolean.getBoolean("diameter.openLoop") || CAPACITY_SEARCH;
+    private static final int MESSAGES_PER_SESSION = UPDATES + 2;
+    private static final int MAX_SESSIONS = Integer.getInteger("diameter.maxSessions", 1_000_000);
+    private static final int CONNECT_PARALLELISM = Integer.getInteger("diameter.connectParallelism", 32);
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("diameter.connectTimeout", 5000);
+    private static final boolean TCP_NO_DELAY = Boolean.parseBoolean(System.getProperty("diameter.tcpNoDelay", "true"));
+    private static final int SEND_BUFFER = Integer.getInteger("diameter.sendBuffer", 0);
+    private static final int RECEIVE_BUFFER = Integer.getInteger("diameter.receiveBuffer", 0);
+    private static final int WRITE_BATCH = Integer.getInteger("diameter.writeBatch", 64);
+    private static final long FLUSH_MICROS = Long.getLong("diameter.flushMicros", 0);
+    private static final long BACKOFF_MIN = Long.getLong("diameter.backoffMin", 100);
+    private static final long BACKOFF_MAX = Long.getLong("diameter.backoffMax", 10000);
+    private static final double READY_RATIO = Double.parseDouble(System.getProperty("diameter.readyRatio", "1"));
+    private static final int REPORT_INTERVAL = Integer.getInteger("diameter.reportInterval", 10);
+    private static final int METRICS_PORT = Integer.getInteger("diameter.metricsPort", 0);
+    private static final int CONTROL_PORT = Integer.getInteger("diameter.controlPort", 0);
+    private static final boolean STUB = Boolean.getBoolean("diameter.stub");
+    private static final String CAPTURE = System.getProperty("diameter.capture");
+    private static final int WORKERS = Integer.getInteger("diameter.workers", 0);
+    private static final int COORDINATOR_PORT = Integer.getInteger("diameter.coordinatorPort", 3870);
     private static final Logger LOGGER = Logger.getLogger(DiameterLoadRunner.class.getSimpleName());
-    private static String ip;
-    private static int port;
-    private final LinkedBlockingQueue<Socket> socketsQueue;
-    private final AtomicLong counter;
+    private static List<Peer> peers;
+    private final LinkedBlockingQueue<FramedSocket> socketsQueue;
+    private final LoadMetrics metrics = new LoadMetrics();
+    private final MetricsExporter exporter = new MetricsExporter(System.getProperty("diameter.metricsFile"));
+    private final ConnectionOpener opener = new ConnectionOpener(CONNECT_PARALLELISM, BACKOFF_MIN, BACKOFF_MAX);
+    private final PeerPool peerPool;
+    private final LoadWorker worker;
+    private final LoadControl control;
+    private final AtomicInteger socketsOpened = new AtomicInteger();
+    private Vertx vertx;
+    private NetClient netClient;
     private ScheduledExecutorService service;
     private Instant startTime;
 
-    public static void main(String[] args) throws InterruptedException {
-        ip = args[0];
-        port = Integer.parseInt(args[1]);
+    public static void main(String[] args) throws InterruptedException, IOException {
+        String coordinator = System.getProperty("diameter.coordinator");
+        if (STUB && (coordinator != null || WORKERS > 0)) {
+            throw new IllegalArgumentException("diameter.stub runs inside a single runner; start StubOcs on its own "
+                                               + "for distributed load");
+        }
+        if (coordinator != null) {
+            LoadWorker worker = new LoadWorker(coordinator);
+            LoadCoordinator.Assignment assignment = worker.assignment();
+            peers = Peer.parse(assignment.peers());
+            new DiameterLoadRunner(assignment.tps(),
+                                   assignment.duration(),
+                                   assignment.subscriberRangeStart(),
+                                   assignment.subscriberCount(),
+                                   worker);
+            return;
+        }
+        String peerList = System.getProperty("diameter.peers");
+        if (peerList == null) {
+            peerList = args[0] + ":" + args[1];
+        }
         int tps = Integer.parseInt(args[2]);
         int duration = Integer.parseInt(args[3]);
         long subscriberRangeStart = Long.parseLong(args[4]);
         int subscriberCount = Integer.parseInt(args[5]);
-        new DiameterLoadRunner(tps, duration, subscriberRangeStart, subscriberCount);
+        if (WORKERS > 0) {
+            try (MetricsExporter exporter = new MetricsExporter(System.getProperty("diameter.metricsFile"))) {
+                LoadCoordinator loadCoordinator = new LoadCoordinator(WORKERS,
+                                                                      COORDINATOR_PORT,
+                                                                      REPORT_INTERVAL,
+                                                                      exporter);
+                logTotals(loadCoordinator.run(peerList, tps, duration, subscriberRangeStart, subscriberCount),
+                          duration);
+            }
+            return;
+        }
+        peers = Peer.parse(peerList);
+        StubOcs stub = STUB ? StubOcs.fromProperties(peers.getFirst().port()) : null;
+        try {
+            new DiameterLoadRunner(tps, duration, subscriberRangeStart, subscriberCount, null);
+        } finally {
+            if (stub != null) {
+                stub.close();
+            }
+        }
     }
 
+    /**
+     * @param worker link to the coordinator when this runner carries one share of a distributed run, otherwise null
+     */
     public DiameterLoadRunner(int tps,
                               int duration,
                               long subscriberRangeStart,
-                              int subscriberCount) throws InterruptedException {
-        int cc = CALL_SLEEP * 4 / 1000;
+                              int subscriberCount,
+                              LoadWorker worker) throws InterruptedException {
+        this.worker = worker;
+        this.control = new LoadControl(tps, MESSAGES_PER_SESSION, CALL_SLEEP);
+        int cc = Math.max(CALL_SLEEP * MESSAGES_PER_SESSION / 1000, 1);
         int threadCount = Math.max(tps * CALL_SLEEP / 1000, 1);
         int callCount = Math.ceilDiv(duration, cc);
-        int createSleep = CALL_SLEEP / threadCount;
         duration = callCount * cc;
-        LOGGER.info("Starting connections...");
-        socketsQueue = prepareConnections(threadCount);
-        counter = new AtomicLong(0);
+        SubscriberKeyspace subscribers = SubscriberKeyspace.fromProperties(subscriberRangeStart, subscriberCount);
+        LOGGER.info("Starting connections to " + peers + "...");
+        peerPool = new PeerPool(peers, MULTIPLEXED ? CONNECTIONS : 0, this::connect, opener, metrics::reconnected);
+        if (MULTIPLEXED) {
+            socketsQueue = new LinkedBlockingQueue<>();
+            if ("vertx".equals(TRANSPORT)) {
+                NetClientOptions options = new NetClientOptions().setTcpNoDelay(TCP_NO_DELAY)
+                        .setConnectTimeout(CONNECT_TIMEOUT);
+                if (SEND_BUFFER > 0) {
+                    options.setSendBufferSize(SEND_BUFFER);
+                }
+                if (RECEIVE_BUFFER > 0) {
+                    options.setReceiveBufferSize(RECEIVE_BUFFER);
+                }
+                netClient = vertx().createNetClient(options);
+            }
+            peerPool.open(readyCount(peers.size() * CONNECTIONS));
+        } else {
+            socketsQueue = new LinkedBlockingQueue<>();
+            prepareConnections(threadCount);
+        }
+        if (METRICS_PORT > 0) {
+            exporter.serve(vertx(), METRICS_PORT);
+        }
+        if (CONTROL_PORT > 0) {
+            control.serve(vertx(), CONTROL_PORT, exporter);
+        }
+        if (worker != null) {
+            try {
+                worker.awaitStart();
+            } catch (IOException e) {
+                closeConnections();
+                throw new RuntimeException(e);
+            }
+        }
         LOGGER.info("Starting load...");
         LOGGER.info("TPS: " + tps + ", Duration: " + duration + " seconds");
-        if (tps == 1 && callCount == 1) {
-            new DiameterClient(this, socketsQueue, counter, subscriberRangeStart, subscriberCount).run();
-        } else {
-            service = Executors.newScheduledThreadPool(threadCount + 1);
+        if (CAPTURE != null) {
+            CaptureWriter.start(Path.of(CAPTURE));
+        }
+        if (REPLAY != null) {
+            String speed = System.getProperty("diameter.replaySpeed", "1");
+            CaptureReplayer replayer = new CaptureReplayer(this,
+                                                           metrics,
+                                                           Path.of(REPLAY),
+                                                           "max".equals(speed) ? 0 : Double.parseDouble(speed),
+                                                           Integer.getInteger("diameter.replayInFlight", 10000));
+            service = Executors.newScheduledThreadPool(1);
             startTime = Instant.now();
-            List<? extends ScheduledFuture<?>> scheduledTasks = IntStream.range(0, threadCount).boxed().map(i -> {
+            service.execute(() -> {
                 try {
-                    Thread.sleep(i * createSleep);
-                } catch (InterruptedException e) {
-                    // ignored
+                    replayer.run();
+                } catch (RuntimeException e) {
+                    LOGGER.severe("Replay failed | cause:" + e.getMessage());
+                } finally {
+                    service.shutdown();
                 }
-                return service.scheduleAtFixedRate(new DiameterClient(this,
-                                                                      socketsQueue,
-                                                                      counter,
-                                                                      subscriberRangeStart,
-                                                                      subscriberCount), 0, 1, TimeUnit.SECONDS);
-            }).toList();
+            });
+            logStatus(duration);
+            boolean ignored = service.awaitTermination(10, TimeUnit.SECONDS);
+            LOGGER.info("Closing connections...");
+        } else if (SESSION_TABLE) {
+            SessionEngine engine = new SessionEngine(this,
+                                                     metrics,
+                                                     control,
+                                                     MAX_SESSIONS,
+                                                     duration,
+                                                     UPDATES,
+                                                     subscribers);
+            service = Executors.newScheduledThreadPool(1);
+            startTime = Instant.now();
+            service.execute(() -> {
+                try {
+                    engine.run();
+                } catch (RuntimeException e) {
+                    LOGGER.severe("Session engine failed | cause:" + e.getMessage());
+                } finally {
+                    service.shutdown();
+                }
+            });
+            logStatus(duration);
+            boolean ignored = service.awaitTermination(10, TimeUnit.SECONDS);
+            LOGGER.info("Closing connections...");
+        } else if (!CAPACITY_SEARCH && tps == 1 && callCount == 1) {
+            new DiameterClient(this, socketsQueue, metrics, subscribers).run();
+        } else if (OPEN_LOOP || VIRTUAL_THREADS) {
+            Supplier<DiameterClient> client = () -> new DiameterClient(this,
+                                                                       socketsQueue,
+                                                                       metrics,
+                                                                       subscribers);
+            ExecutorService workers;
+            LongConsumer session;
+            if (VIRTUAL_THREADS) {
+                ThreadFactory threads = Thread.ofVirtual().name("session").factory();
+                workers = Executors.newThreadPerTaskExecutor(sessionThreads(threads));
+                session = intendedStart -> client.get().runSession(intendedStart);
+            } else {
+                workers = Executors.newCachedThreadPool(sessionThreads(Executors.defaultThreadFactory()));
+                ThreadLocal<DiameterClient> clients = ThreadLocal.withInitial(client);
+                session = intendedStart -> clients.get().runSession(intendedStart);
+            }
+            startTime = Instant.now();
+            if (CAPACITY_SEARCH) {
+                new CapacitySearch(metrics, exporter, workers, session, MESSAGES_PER_SESSION)
+                        .step(Integer.getInteger("diameter.searchStep", tps),
+                              Integer.getInteger("diameter.searchStepDuration", 30))
+                        .maxTps(Integer.getInteger("diameter.searchMaxTps", 0))
+                        .warmup(Integer.getInteger("diameter.searchWarmup", 10))
+                        .refinements(Integer.getInteger("diameter.searchRefinements", 2))
+                        .settle((long) control.callSleep() * MESSAGES_PER_SESSION + ANSWER_TIMEOUT)
+                        .sla(Double.parseDouble(System.getProperty("diameter.slaP99", "100")),
+                             Double.parseDouble(System.getProperty("diameter.slaErrorRatio", "0.01")))
+                        .run(tps);
+            } else {
+                OpenLoopScheduler scheduler = new OpenLoopScheduler(control, duration, workers, session);
+                service = Executors.newScheduledThreadPool(1);
+                service.execute(() -> {
+                    try {
+                        scheduler.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.severe("Scheduler failed | cause:" + e.getMessage());
+                    } finally {
+                        service.shutdown();
+                    }
+                });
+                logStatus(duration);
+            }
+            LOGGER.info("Waiting for sessions to complete...");
+            workers.shutdown();
+            long drainMillis = (long) control.callSleep() * MESSAGES_PER_SESSION + ANSWER_TIMEOUT;
+            boolean ignored = workers.awaitTermination(drainMillis, TimeUnit.MILLISECONDS);
+            LOGGER.info("Closing connections...");
+        } else {
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(threadCount + 2);
+            service = pool;
+            startTime = Instant.now();
+            ClosedLoopClients clients = new ClosedLoopClients(pool,
+                                                              control,
+                                                              () -> new DiameterClient(this,
+                                                                                       socketsQueue,
+                                                                                       metrics,
+                                                                                       subscribers),
+                                                              this::ensureSockets);
+            clients.resize();
+            service.scheduleWithFixedDelay(clients::resize, 1, 1, TimeUnit.SECONDS);
             service.schedule(() -> {
-                scheduledTasks.forEach(s -> s.cancel(false));
+                clients.stop();
                 service.shutdown();
             }, duration, TimeUnit.SECONDS);
             logStatus(duration);
@@ -91,11 +303,56 @@ public class DiameterLoadRunner {
             boolean ignored = service.awaitTermination(10, TimeUnit.SECONDS);
             LOGGER.info("Closing connections...");
         }
+        MetricsSnapshot snapshot = metrics.snapshot();
+        export(snapshot);
+        CaptureWriter.stop();
         closeConnections();
-        LOGGER.info("Total requests sent: " + counter.get() + ", Total duration: " + duration);
+        if (worker != null) {
+            worker.close();
+        }
+        logTotals(snapshot, duration);
+        exporter.close();
+    }
+
+    static void logTotals(MetricsSnapshot snapshot, int duration) {
+        LOGGER.info(MessageFormat.format("Total requests sent: {0}, answered: {1}, timeouts: {2}, failures: {3}, "
+                                         + "reconnects: {4}, Total duration: {5}",
+                                         snapshot.sent(),
+                                         snapshot.answered(),
+                                         snapshot.timeouts(),
+                                         snapshot.failures(),
+                                         snapshot.reconnects(),
+                                         duration));
+        LOGGER.info("Result codes: " + snapshot.resultCodes());
+        snapshot.commands().forEach(c -> LOGGER.info(c.type() + " latency " + formatLatencies(c.total())));
+    }
+
+    public boolean isOpenLoop() {
+        return OPEN_LOOP;
+    }
+
+    public LoadControl control() {
+        return control;
+    }
+
+    private Vertx vertx() {
+        if (vertx == null) {
+            vertx = Vertx.vertx();
+        }
+        return vertx;
+    }
+
+    private static String formatLatencies(LatencyHistogram histogram) {
+        return MessageFormat.format("p50: {0}ms, p99: {1}ms, p99.9: {2}ms, max: {3}ms",
+                                    histogram.percentile(50) / 1000.0,
+                                    histogram.percentile(99) / 1000.0,
+                                    histogram.percentile(99.9) / 1000.0,
+                                    histogram.max() / 1000.0);
     }
 
     private void closeConnections() {
+        control.close();
+        opener.close();
         socketsQueue.forEach(s -> {
             try {
                 s.close();
@@ -103,59 +360,155 @@ public class DiameterLoadRunner {
                 //ignored
             }
         });
+        peerPool.close();
+        if (vertx != null) {
+            vertx.close();
+        }
+    }
+
+    public boolean isMultiplexed() {
+        return MULTIPLEXED;
+    }
+
+    public boolean isPerRequestRouting() {
+        return PER_REQUEST_ROUTING;
+    }
+
+    public DiameterConnection nextConnection() throws SocketException {
+        return peerPool.next();
     }
 
     private void logStatus(int duration) {
-        long start = System.currentTimeMillis();
-        long end;
-        long prevCount = 0;
-        long newCount;
         while (!service.isShutdown()) {
             try {
-                TimeUnit.SECONDS.sleep(10);
+                TimeUnit.SECONDS.sleep(REPORT_INTERVAL);
             } catch (InterruptedException e) {
                 //ignored
             }
-            newCount = counter.get();
-            end = System.currentTimeMillis();
-            long rate = (newCount - prevCount) * 1000 / (end - start);
-            LOGGER.info(MessageFormat.format("Current TPS: {0}, Time:{1}/{2}s",
-                                             rate,
-                                             Duration.between(startTime, Instant.now()).getSeconds(),
-                                             duration));
-            start = end;
-            prevCount = newCount;
+            MetricsSnapshot snapshot = metrics.snapshot();
+            export(snapshot);
+            logInterval(snapshot, Duration.between(startTime, Instant.now()).getSeconds(), duration);
         }
     }
 
-    private LinkedBlockingQueue<Socket> prepareConnections(int threadCount) {
-        return IntStream.range(0, threadCount)
-                .mapToObj(i -> initializeSocket())
-                .collect(Collectors.toCollection(LinkedBlockingQueue::new));
+    static void logInterval(MetricsSnapshot snapshot, long elapsedSeconds, int duration) {
+        LOGGER.info(MessageFormat.format("Current TPS: {0}, Time:{1}/{2}s, In flight: {3}, Timeouts: {4}, "
+                                         + "Failures: {5}, Result codes: {6}",
+                                         snapshot.intervalTps(),
+                                         elapsedSeconds,
+                                         duration,
+                                         snapshot.inFlight(),
+                                         snapshot.timeouts(),
+                                         snapshot.failures(),
+                                         snapshot.intervalResultCodes()));
+        snapshot.commands().forEach(c -> LOGGER.info(c.type() + " latency " + formatLatencies(c.interval())));
+    }
+
+    private void export(MetricsSnapshot snapshot) {
+        exporter.export(snapshot);
+        if (worker != null) {
+            worker.report(snapshot);
+        }
+    }
+
+    private void prepareConnections(int threadCount) throws InterruptedException {
+        ensureSockets(threadCount);
+        ConnectionOpener.awaitReady(socketsQueue::size, threadCount, readyCount(threadCount));
+    }
+
+    private static int readyCount(int total) {
+        return Math.max((int) Math.ceil(total * READY_RATIO), 1);
+    }
+
+    private DiameterConnection connect(Peer peer) {
+        try {
+            if (netClient != null) {
+                return VertxConnection.connect(netClient,
+                                               peer.host(),
+                                               peer.port(),
+                                               capabilitiesExchangeRequest(),
+                                               CONNECT_TIMEOUT,
+                                               WRITE_BATCH)
+                        .get(2L * CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            return new MultiplexedConnection(openSocket(peer), peer.toString(), WRITE_BATCH, FLUSH_MICROS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
     }
 
-    public Socket initializeSocket() {
-        Socket socket;
-        do {
+    /**
+     * Closes a broken session socket and opens its replacement in the background.
+     */
+    public void replaceSocket(FramedSocket socket) {
+        ConnectionOpener.closeQuietly(socket);
+        openSocketInBackground();
+    }
+
+    /**
+     * Opens session sockets in the background until {@code count} have been opened, so sessions started for a higher
+     * rate do not wait for one. Multiplexed connections are shared and do not grow with the rate.
+     */
+    private void ensureSockets(int count) {
+        if (MULTIPLEXED) {
+            return;
+        }
+        int opened;
+        while ((opened = socketsOpened.get()) < count) {
+            if (socketsOpened.compareAndSet(opened, opened + 1)) {
+                openSocketInBackground();
+            }
+        }
+    }
+
+    /**
+     * Wraps the threads of open-loop sessions so that session sockets grow with the number running at once. The
+     * platform pool creates a thread whenever every existing one is busy, so a raised rate is not queued behind a pool
+     * sized for the starting rate.
+     */
+    private ThreadFactory sessionThreads(ThreadFactory threads) {
+        AtomicInteger alive = new AtomicInteger();
+        return task -> threads.newThread(() -> {
+            ensureSockets(alive.incrementAndGet());
             try {
-                socket = new Socket(ip, port);
-                socket.setSoTimeout(100000);
-                socket.setSoLinger(false, 0);
-                cex(socket);
-            } catch (Exception ignored) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    //ignored
-                }
-                continue;
+                task.run();
+            } finally {
+                alive.decrementAndGet();
             }
-            break;
-        } while (true);
-        return socket;
+        });
     }
 
-    private static void cex(Socket socket) throws IOException {
+    private void openSocketInBackground() {
+        opener.open(peers.toString(), () -> openSocket(peerPool.nextPeer()), socketsQueue::add);
+    }
+
+    static FramedSocket openSocket(Peer peer) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            Socket s = channel.socket();
+            s.setTcpNoDelay(TCP_NO_DELAY);
+            if (SEND_BUFFER > 0) {
+                s.setSendBufferSize(SEND_BUFFER);
+            }
+            if (RECEIVE_BUFFER > 0) {
+                s.setReceiveBufferSize(RECEIVE_BUFFER);
+            }
+            s.connect(new InetSocketAddress(peer.host(), peer.port()), CONNECT_TIMEOUT);
+            s.setSoTimeout(ANSWER_TIMEOUT);
+            s.setSoLinger(false, 0);
+            FramedSocket socket = new FramedSocket(channel);
+            cex(socket);
+            return socket;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static byte[] capabilitiesExchangeRequest() throws IOException {
         DiameterMessageHeader header = new DiameterMessageHeader.Builder(DiameterCommandCode.CE).setApplicationId(0)
                 .setRequest()
                 .setHopByHopId(0xa69025ddL)
@@ -168,19 +521,16 @@ public class DiameterLoadRunner {
                                        PRODUCT_NAME.createAvp("test"),
                                        VENDOR_ID.createAvp(1));
 
-        DiameterMessage dm = new DiameterMessage(header, avps);
-        byte[] BYTE_ARR_BUFFER = new byte[4096];
-        ByteBuffer BYTE_BUFFER = ByteBuffer.allocate(4096);
-        socket.getOutputStream().write(dm.convertToBytes(BYTE_BUFFER));
-        int len = socket.getInputStream().read(BYTE_ARR_BUFFER);
-        if (len > 19) {
-            DiameterMessage da = new DiameterMessage(BYTE_ARR_BUFFER, len);
-            Integer resultCode = da.getAvp(AvpCodeTable.RFC.RESULT_CODE).getValue();
-            if (resultCode != 2001) {
-                throw new RuntimeException("Failure: " + da);
-            }
-        } else {
-            throw new RuntimeException("Problem on received answer");
+        return new DiameterMessage(header, avps).convertToBytes(ByteBuffer.allocate(4096));
+    }
+
+    private static void cex(FramedSocket socket) throws IOException {
+        socket.write(capabilitiesExchangeRequest());
+        DiameterFrameDecoder cea = socket.awaitFrame();
+        int resultCode = new AnswerDecoder().decode(cea.array(), cea.frameOffset()).resultCode();
+        cea.skipFrame();
+        if (resultCode != 2001) {
+            throw new RuntimeException("Failure: Result-Code " + resultCode);
         }
     }
 }
@@ -0,0 +1,65 @@
+package com.optiva;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A socket with its own frame decoder, so bytes read past one message are kept for the next read. It is backed by a
+ * blocking channel so batches can be written straight from a direct buffer.
+ */
+public class FramedSocket implements Closeable {
+    private final SocketChannel channel;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final DiameterFrameDecoder decoder = new DiameterFrameDecoder(4096);
+
+    public FramedSocket(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.socket = channel.socket();
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+    }
+
+    public void write(byte[] message) throws IOException {
+        out.write(message);
+    }
+
+    public void write(ByteBuffer messages) throws IOException {
+        while (messages.hasRemaining()) {
+            channel.write(messages);
+        }
+    }
+
+    public DiameterFrameDecoder decoder() {
+        return decoder;
+    }
+
+    public void read() throws IOException {
+        if (decoder.readFrom(in) < 0) {
+            throw new EOFException("Connection closed by peer");
+        }
+    }
+
+    public DiameterFrameDecoder awaitFrame() throws IOException {
+        while (!decoder.hasFrame()) {
+            read();
+        }
+        return decoder;
+    }
+
+    public Socket socket() {
+        return socket;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.optiva;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of microsecond latencies with 32 sub-buckets per power of two (about 3% precision).
+ * Recording is lock-free; {@link #drainInto} moves counts out atomically so interval snapshots never lose samples.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = TimeUnit.HOURS.toMicros(1);
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return exponent * SUB_BUCKETS + (int) (value >>> exponent);
+    }
+
+    static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        return (long) (index - exponent * SUB_BUCKETS) << exponent;
+    }
+
+    public void record(long micros) {
+        counts.incrementAndGet(index(Math.min(Math.max(micros, 0), MAX_VALUE)));
+    }
+
+    public void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return lowerBound(i + 1) - 1;
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return lowerBound(i + 1) - 1;
+            }
+        }
+        return 0;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c > 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+    }
+
+    public void drainInto(LatencyHistogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.getAndSet(i, 0);
+            if (c > 0) {
+                target.counts.addAndGet(i, c);
+            }
+        }
+    }
+
+    /**
+     * Writes the non-empty buckets as index/count pairs.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int buckets = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) > 0) {
+                buckets++;
+            }
+        }
+        out.writeInt(buckets);
+        for (int i = 0; i < BUCKETS && buckets > 0; i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                out.writeShort(i);
+                out.writeLong(c);
+                buckets--;
+            }
+        }
+    }
+
+    public static LatencyHistogram readFrom(DataInput in) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int buckets = in.readInt(); buckets > 0; buckets--) {
+            histogram.counts.addAndGet(in.readUnsignedShort(), in.readLong());
+        }
+        return histogram;
+    }
+}
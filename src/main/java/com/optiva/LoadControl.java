@@ -0,0 +1,245 @@
+package com.optiva;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * The shape of a running test: target TPS, paused or not, and the interval between the messages of a session. The
+ * schedulers read it for every session they start, so changes take effect without restarting the run or its
+ * connections. {@link #serve} exposes it over HTTP on the loopback address.
+ */
+public class LoadControl {
+    private static final Logger LOGGER = Logger.getLogger(LoadControl.class.getSimpleName());
+    private final int messagesPerSession;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile Ramp ramp;
+    private volatile boolean paused;
+    private volatile int callSleep;
+    private long version;
+    private HttpServer server;
+
+    /**
+     * Moves the rate linearly from {@code fromTps} to {@code toTps} between two {@link System#nanoTime} instants.
+     */
+    private record Ramp(double fromTps, double toTps, long startNanos, long endNanos) {
+        double tps(long now) {
+            if (now >= endNanos) {
+                return toTps;
+            }
+            return fromTps + (toTps - fromTps) * (now - startNanos) / (endNanos - startNanos);
+        }
+    }
+
+    public LoadControl(double tps, int messagesPerSession, int callSleep) {
+        this.messagesPerSession = messagesPerSession;
+        this.ramp = new Ramp(tps, tps, 0, 0);
+        this.callSleep = callSleep;
+    }
+
+    public double tps() {
+        return ramp.tps(System.nanoTime());
+    }
+
+    /**
+     * @return sessions that must run at once to hold the current rate when each sends a message every interval
+     */
+    public int concurrency() {
+        return Math.max((int) Math.ceil(tps() * callSleep / 1000), 1);
+    }
+
+    public long sessionPeriodNanos() {
+        return (long) (TimeUnit.SECONDS.toNanos(1) * messagesPerSession / tps());
+    }
+
+    /**
+     * Moves the target rate to {@code tps} over {@code rampSeconds}, starting from the current rate.
+     */
+    public void rate(double tps, int rampSeconds) {
+        if (!Double.isFinite(tps) || tps <= 0 || rampSeconds < 0) {
+            throw new IllegalArgumentException("TPS must be finite and positive and ramp not negative: " + tps + ", "
+                                               + rampSeconds);
+        }
+        long now = System.nanoTime();
+        ramp = new Ramp(ramp.tps(now), tps, now, now + TimeUnit.SECONDS.toNanos(rampSeconds));
+        LOGGER.info("Rate set to " + tps + " TPS" + (rampSeconds > 0 ? " over " + rampSeconds + "s" : ""));
+        changed();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void pause() {
+        paused = true;
+        LOGGER.info("Load paused");
+        changed();
+    }
+
+    public void resume() {
+        paused = false;
+        LOGGER.info("Load resumed");
+        changed();
+    }
+
+    /**
+     * @return milliseconds between the messages of a session
+     */
+    public int callSleep() {
+        return callSleep;
+    }
+
+    public void callSleep(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Interval must not be negative: " + millis);
+        }
+        callSleep = millis;
+        LOGGER.info("Interval set to " + millis + "ms");
+        changed();
+    }
+
+    /**
+     * For closed-loop clients that together run {@code capacityTps}: whether the session due now should run. Below
+     * that capacity sessions are thinned at random; above it every session runs.
+     */
+    public boolean admit(double capacityTps) {
+        if (paused) {
+            return false;
+        }
+        double tps = tps();
+        return tps >= capacityTps || ThreadLocalRandom.current().nextDouble() * capacityTps < tps;
+    }
+
+    /**
+     * Sleeps until {@code deadline} unless a setting changes first.
+     *
+     * @return false if woken by a change, so the caller can recompute its deadline
+     */
+    public boolean sleepUntil(long deadline) throws InterruptedException {
+        lock.lock();
+        try {
+            long seen = version;
+            long remaining = deadline - System.nanoTime();
+            while (remaining > 0 && version == seen) {
+                remaining = changed.awaitNanos(remaining);
+            }
+            return version == seen;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits while the load is paused, but not past {@code deadline}.
+     *
+     * @return true if the load was paused and this call waited
+     */
+    public boolean awaitResume(long deadline) throws InterruptedException {
+        if (!paused) {
+            return false;
+        }
+        lock.lock();
+        try {
+            long remaining = deadline - System.nanoTime();
+            while (paused && remaining > 0) {
+                remaining = changed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void changed() {
+        lock.lock();
+        try {
+            version++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject().put("tps", tps())
+                .put("targetTps", ramp.toTps())
+                .put("paused", paused)
+                .put("intervalMillis", callSleep);
+    }
+
+    /**
+     * Serves {@code GET /status}, {@code GET /snapshot} (the exporter's latest snapshot with the settings),
+     * {@code POST /rate?tps=N[&ramp=S]}, {@code POST /pause}, {@code POST /resume} and {@code POST /interval?ms=N},
+     * each answering with the settings as JSON.
+     */
+    public void serve(Vertx vertx, int port, MetricsExporter exporter) {
+        server = vertx.createHttpServer().requestHandler(request -> {
+            try {
+                JsonObject body = handle(request, exporter);
+                if (body == null) {
+                    request.response().setStatusCode(404).end();
+                } else {
+                    request.response().putHeader("Content-Type", "application/json").end(body.encode());
+                }
+            } catch (IllegalArgumentException e) {
+                request.response().setStatusCode(400).end(e.getMessage() + "\n");
+            }
+        });
+        server.listen(port, "127.0.0.1")
+                .onSuccess(s -> LOGGER.info("Serving load control on port " + s.actualPort()))
+                .onFailure(e -> LOGGER.severe("Unable to serve load control | cause:" + e.getMessage()));
+    }
+
+    private JsonObject handle(HttpServerRequest request, MetricsExporter exporter) {
+        if (request.method() == HttpMethod.GET) {
+            return switch (request.path()) {
+                case "/status" -> toJson();
+                case "/snapshot" -> {
+                    MetricsSnapshot snapshot = exporter.last();
+                    JsonObject json = snapshot == null ? new JsonObject() : MetricsExporter.toJson(snapshot);
+                    yield json.put("control", toJson());
+                }
+                default -> null;
+            };
+        }
+        if (request.method() != HttpMethod.POST) {
+            return null;
+        }
+        switch (request.path()) {
+            case "/rate" -> {
+                String ramp = request.getParam("ramp");
+                rate(Double.parseDouble(param(request, "tps")), ramp == null ? 0 : Integer.parseInt(ramp));
+            }
+            case "/pause" -> pause();
+            case "/resume" -> resume();
+            case "/interval" -> callSleep(Integer.parseInt(param(request, "ms")));
+            default -> {
+                return null;
+            }
+        }
+        return toJson();
+    }
+
+    private static String param(HttpServerRequest request, String name) {
+        String value = request.getParam(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    public void close() {
+        if (server != null) {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.optiva;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Splits one load test across worker JVMs. Each worker gets an equal share of the TPS and a disjoint slice of the
+ * subscriber range, opens its connections, and starts at the same wall-clock instant as the others; the snapshots they
+ * stream back are merged into one live and one final report.
+ */
+public class LoadCoordinator {
+    static final byte ASSIGN = 1;
+    static final byte READY = 2;
+    static final byte START = 3;
+    static final byte SNAPSHOT = 4;
+    static final byte DONE = 5;
+    private static final Logger LOGGER = Logger.getLogger(LoadCoordinator.class.getSimpleName());
+    private static final RequestType[] TYPES = RequestType.values();
+    private static final int START_DELAY = Integer.getInteger("diameter.startDelay", 2000);
+    private final int workers;
+    private final int port;
+    private final int reportInterval;
+    private final MetricsExporter exporter;
+
+    public record Assignment(String peers, int tps, int duration, long subscriberRangeStart, int subscriberCount) {
+    }
+
+    public LoadCoordinator(int workers, int port, int reportInterval, MetricsExporter exporter) {
+        this.workers = workers;
+        this.port = port;
+        this.reportInterval = reportInterval;
+        this.exporter = exporter;
+    }
+
+    public MetricsSnapshot run(String peers, int tps, int duration, long subscriberRangeStart, int subscriberCount)
+            throws IOException, InterruptedException {
+        if (tps < workers || subscriberCount < workers) {
+            throw new IllegalArgumentException("TPS and subscriber count must be at least the number of workers");
+        }
+        List<Link> links = new ArrayList<>(workers);
+        try (ServerSocket server = new ServerSocket(port)) {
+            LOGGER.info("Waiting for " + workers + " workers on port " + server.getLocalPort() + "...");
+            while (links.size() < workers) {
+                Socket socket = server.accept();
+                links.add(new Link(socket));
+                LOGGER.info("Worker " + links.size() + "/" + workers + " connected from "
+                            + socket.getRemoteSocketAddress());
+            }
+        }
+        try {
+            long rangeStart = subscriberRangeStart;
+            for (int i = 0; i < workers; i++) {
+                Assignment assignment = new Assignment(peers,
+                                                       share(tps, i),
+                                                       duration,
+                                                       rangeStart,
+                                                       share(subscriberCount, i));
+                rangeStart += assignment.subscriberCount();
+                links.get(i).assign(assignment);
+                LOGGER.info("Worker " + (i + 1) + ": " + assignment);
+            }
+            for (Link link : links) {
+                link.awaitReady();
+            }
+            long startAt = System.currentTimeMillis() + START_DELAY;
+            for (Link link : links) {
+                link.start(startAt);
+            }
+            LOGGER.info("All workers ready, starting load at " + Instant.ofEpochMilli(startAt));
+            TimeUnit.MILLISECONDS.sleep(startAt - System.currentTimeMillis());
+            LoadMetrics metrics = new LoadMetrics();
+            Instant startTime = Instant.now();
+            CountDownLatch done = new CountDownLatch(workers);
+            for (int i = 0; i < workers; i++) {
+                Link link = links.get(i);
+                int worker = i + 1;
+                Thread.ofVirtual().name("worker-" + worker).start(() -> {
+                    link.receive(metrics, worker);
+                    done.countDown();
+                });
+            }
+            while (!done.await(reportInterval, TimeUnit.SECONDS)) {
+                MetricsSnapshot snapshot = metrics.snapshot();
+                exporter.export(snapshot);
+                DiameterLoadRunner.logInterval(snapshot,
+                                               Duration.between(startTime, Instant.now()).getSeconds(),
+                                               duration);
+            }
+            MetricsSnapshot snapshot = metrics.snapshot();
+            exporter.export(snapshot);
+            return snapshot;
+        } finally {
+            links.forEach(Link::close);
+        }
+    }
+
+    private int share(int total, int worker) {
+        return total / workers + (worker < total % workers ? 1 : 0);
+    }
+
+    static void writeSnapshot(DataOutputStream out, MetricsSnapshot snapshot) throws IOException {
+        out.writeLong(snapshot.timestamp());
+        out.writeLong(snapshot.elapsedMillis());
+        out.writeLong(snapshot.intervalMillis());
+        for (MetricsSnapshot.CommandStats c : snapshot.commands()) {
+            out.writeLong(c.sent());
+            out.writeLong(c.answered());
+            out.writeLong(c.timeouts());
+            out.writeLong(c.failures());
+            out.writeLong(c.intervalAnswered());
+            c.interval().writeTo(out);
+        }
+        out.writeInt(snapshot.resultCodes().size());
+        for (Map.Entry<Integer, Long> e : snapshot.resultCodes().entrySet()) {
+            out.writeInt(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeLong(snapshot.reconnects());
+        out.writeLong(snapshot.inFlight());
+    }
+
+    /**
+     * Reads what {@link #writeSnapshot} wrote. Only the interval histograms travel, so totals come back empty, and so do
+     * the interval result codes, which the merging side derives itself.
+     */
+    static MetricsSnapshot readSnapshot(DataInputStream in) throws IOException {
+        long timestamp = in.readLong();
+        long elapsedMillis = in.readLong();
+        long intervalMillis = in.readLong();
+        List<MetricsSnapshot.CommandStats> commands = new ArrayList<>(TYPES.length);
+        for (RequestType type : TYPES) {
+            commands.add(new MetricsSnapshot.CommandStats(type,
+                                                          in.readLong(),
+                                                          in.readLong(),
+                                                          in.readLong(),
+                                                          in.readLong(),
+                                                          in.readLong(),
+                                                          LatencyHistogram.readFrom(in),
+                                                          new LatencyHistogram()));
+        }
+        Map<Integer, Long> resultCodes = new TreeMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            resultCodes.put(in.readInt(), in.readLong());
+        }
+        return new MetricsSnapshot(timestamp,
+                                   elapsedMillis,
+                                   intervalMillis,
+                                   commands,
+                                   resultCodes,
+                                   Map.of(),
+                                   in.readLong(),
+                                   in.readLong());
+    }
+
+    private static class Link {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void assign(Assignment assignment) throws IOException {
+            out.writeByte(ASSIGN);
+            out.writeUTF(assignment.peers());
+            out.writeInt(assignment.tps());
+            out.writeInt(assignment.duration());
+            out.writeLong(assignment.subscriberRangeStart());
+            out.writeInt(assignment.subscriberCount());
+            out.flush();
+        }
+
+        void awaitReady() throws IOException {
+            if (in.readByte() != READY) {
+                throw new IOException("Worker " + socket.getRemoteSocketAddress() + " is not ready");
+            }
+        }
+
+        void start(long startAt) throws IOException {
+            out.writeByte(START);
+            out.writeLong(startAt);
+            out.flush();
+        }
+
+        void receive(LoadMetrics metrics, int worker) {
+            MetricsSnapshot previous = null;
+            try {
+                while (in.readByte() == SNAPSHOT) {
+                    MetricsSnapshot snapshot = readSnapshot(in);
+                    metrics.merge(previous, snapshot);
+                    previous = snapshot;
+                }
+                LOGGER.info("Worker " + worker + " finished");
+            } catch (IOException e) {
+                LOGGER.severe("Lost worker " + worker + " | cause:" + e.getMessage());
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //ignored
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.optiva;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Run-wide counters and latency histograms.
+ * Latencies are recorded into histograms striped by thread id so concurrent sessions rarely touch the same counters;
+ * {@link #snapshot()} drains the stripes into one interval histogram per request type.
+ */
+public class LoadMetrics {
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    private static final RequestType[] TYPES = RequestType.values();
+    private final LatencyHistogram[][] stripes = new LatencyHistogram[STRIPES][TYPES.length];
+    private final LatencyHistogram[] totals = new LatencyHistogram[TYPES.length];
+    private final LongAdder[] sent = new LongAdder[TYPES.length];
+    private final LongAdder[] answered = new LongAdder[TYPES.length];
+    private final LongAdder[] timeouts = new LongAdder[TYPES.length];
+    private final LongAdder[] failures = new LongAdder[TYPES.length];
+    private final long[] previousAnswered = new long[TYPES.length];
+    private final Map<Integer, LongAdder> resultCodes = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> previousResultCodes = new TreeMap<>();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final long startTime = System.currentTimeMillis();
+    private long previousSnapshot = startTime;
+
+    public LoadMetrics() {
+        for (int t = 0; t < TYPES.length; t++) {
+            for (int s = 0; s < STRIPES; s++) {
+                stripes[s][t] = new LatencyHistogram();
+            }
+            totals[t] = new LatencyHistogram();
+            sent[t] = new LongAdder();
+            answered[t] = new LongAdder();
+            timeouts[t] = new LongAdder();
+            failures[t] = new LongAdder();
+        }
+    }
+
+    public void requestSent(RequestType type) {
+        sent[type.ordinal()].increment();
+        inFlight.increment();
+    }
+
+    public void answerReceived(RequestType type, int resultCode, long latencyNanos) {
+        inFlight.decrement();
+        answered[type.ordinal()].increment();
+        resultCodes.computeIfAbsent(resultCode, c -> new LongAdder()).increment();
+        int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+        stripes[stripe][type.ordinal()].recordNanos(latencyNanos);
+    }
+
+    public void requestTimedOut(RequestType type) {
+        inFlight.decrement();
+        timeouts[type.ordinal()].increment();
+    }
+
+    public void requestFailed(RequestType type) {
+        inFlight.decrement();
+        failures[type.ordinal()].increment();
+    }
+
+    public void reconnected() {
+        reconnects.increment();
+    }
+
+    /**
+     * Adds what a remote run recorded between two of its snapshots, so a coordinator can report several workers as one.
+     *
+     * @param previous the worker's prior snapshot, or {@code null} for its first
+     */
+    public void merge(MetricsSnapshot previous, MetricsSnapshot current) {
+        for (int t = 0; t < TYPES.length; t++) {
+            MetricsSnapshot.CommandStats c = current.commands().get(t);
+            MetricsSnapshot.CommandStats p = previous == null ? null : previous.commands().get(t);
+            sent[t].add(c.sent() - (p == null ? 0 : p.sent()));
+            answered[t].add(c.answered() - (p == null ? 0 : p.answered()));
+            timeouts[t].add(c.timeouts() - (p == null ? 0 : p.timeouts()));
+            failures[t].add(c.failures() - (p == null ? 0 : p.failures()));
+            stripes[0][t].add(c.interval());
+        }
+        current.resultCodes().forEach((code, count) -> {
+            long before = previous == null ? 0 : previous.resultCodes().getOrDefault(code, 0L);
+            resultCodes.computeIfAbsent(code, k -> new LongAdder()).add(count - before);
+        });
+        reconnects.add(current.reconnects() - (previous == null ? 0 : previous.reconnects()));
+        inFlight.add(current.inFlight() - (previous == null ? 0 : previous.inFlight()));
+    }
+
+    public synchronized MetricsSnapshot snapshot() {
+        long now = System.currentTimeMillis();
+        List<MetricsSnapshot.CommandStats> commands = new ArrayList<>(TYPES.length);
+        for (int t = 0; t < TYPES.length; t++) {
+            LatencyHistogram interval = new LatencyHistogram();
+            for (int s = 0; s < STRIPES; s++) {
+                stripes[s][t].drainInto(interval);
+            }
+            totals[t].add(interval);
+            LatencyHistogram total = new LatencyHistogram();
+            total.add(totals[t]);
+            long answeredCount = answered[t].sum();
+            commands.add(new MetricsSnapshot.CommandStats(TYPES[t],
+                                                          sent[t].sum(),
+                                                          answeredCount,
+                                                          timeouts[t].sum(),
+                                                          failures[t].sum(),
+                                                          answeredCount - previousAnswered[t],
+                                                          interval,
+                                                          total));
+            previousAnswered[t] = answeredCount;
+        }
+        Map<Integer, Long> codes = new TreeMap<>();
+        Map<Integer, Long> intervalCodes = new TreeMap<>();
+        resultCodes.forEach((code, count) -> {
+            long value = count.sum();
+            codes.put(code, value);
+            intervalCodes.put(code, value - previousResultCodes.getOrDefault(code, 0L));
+        });
+        previousResultCodes.putAll(codes);
+        MetricsSnapshot snapshot = new MetricsSnapshot(now,
+                                                       now - startTime,
+                                                       now - previousSnapshot,
+                                                       commands,
+                                                       codes,
+                                                       intervalCodes,
+                                                       reconnects.sum(),
+                                                       inFlight.sum());
+        previousSnapshot = now;
+        return snapshot;
+    }
+}
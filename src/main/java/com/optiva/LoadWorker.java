@@ -0,0 +1,71 @@
+package com.optiva;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A load runner's link to its {@link LoadCoordinator}: receives the run's share, waits for the common start and
+ * streams every metrics snapshot back.
+ */
+public class LoadWorker implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(LoadWorker.class.getSimpleName());
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public LoadWorker(String coordinator) throws IOException {
+        int colon = coordinator.lastIndexOf(':');
+        this.socket = new Socket(coordinator.substring(0, colon), Integer.parseInt(coordinator.substring(colon + 1)));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public LoadCoordinator.Assignment assignment() throws IOException {
+        if (in.readByte() != LoadCoordinator.ASSIGN) {
+            throw new IOException("Expected an assignment from the coordinator");
+        }
+        return new LoadCoordinator.Assignment(in.readUTF(), in.readInt(), in.readInt(), in.readLong(), in.readInt());
+    }
+
+    /**
+     * Tells the coordinator this worker's connections are open and sleeps until the start it announces.
+     */
+    public void awaitStart() throws IOException, InterruptedException {
+        out.writeByte(LoadCoordinator.READY);
+        out.flush();
+        if (in.readByte() != LoadCoordinator.START) {
+            throw new IOException("Expected a start from the coordinator");
+        }
+        long startAt = in.readLong();
+        LOGGER.info("Waiting " + (startAt - System.currentTimeMillis()) + "ms for the coordinated start");
+        TimeUnit.MILLISECONDS.sleep(startAt - System.currentTimeMillis());
+    }
+
+    public synchronized void report(MetricsSnapshot snapshot) {
+        try {
+            out.writeByte(LoadCoordinator.SNAPSHOT);
+            LoadCoordinator.writeSnapshot(out, snapshot);
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.severe("Unable to report to coordinator | cause:" + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.writeByte(LoadCoordinator.DONE);
+            out.flush();
+            socket.close();
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.optiva;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes every snapshot as CSV rows and JSON lines, and serves the latest one in Prometheus text format.
+ */
+public class MetricsExporter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(MetricsExporter.class.getSimpleName());
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private final BufferedWriter latencyCsv;
+    private final BufferedWriter resultCsv;
+    private final BufferedWriter json;
+    private HttpServer server;
+    private volatile MetricsSnapshot last;
+
+    public MetricsExporter(String filePrefix) {
+        try {
+            if (filePrefix != null) {
+                latencyCsv = Files.newBufferedWriter(Path.of(filePrefix + "-latency.csv"));
+                latencyCsv.write("timestamp,elapsed_ms,command,sent,answered,timeouts,failures,interval_answered,"
+                                 + "p50_us,p90_us,p99_us,p999_us,max_us\n");
+                resultCsv = Files.newBufferedWriter(Path.of(filePrefix + "-results.csv"));
+                resultCsv.write("timestamp,elapsed_ms,result_code,count,interval_count\n");
+                json = Files.newBufferedWriter(Path.of(filePrefix + ".jsonl"));
+            } else {
+                latencyCsv = resultCsv = json = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void serve(Vertx vertx, int port) {
+        server = vertx.createHttpServer().requestHandler(request -> {
+            MetricsSnapshot snapshot = last;
+            request.response()
+                    .putHeader("Content-Type", "text/plain; version=0.0.4")
+                    .end(snapshot == null ? "" : prometheus(snapshot));
+        });
+        server.listen(port)
+                .onSuccess(s -> LOGGER.info("Serving metrics on port " + s.actualPort()))
+                .onFailure(e -> LOGGER.severe("Unable to serve metrics | cause:" + e.getMessage()));
+    }
+
+    /**
+     * @return the snapshot exported last, or null before the first
+     */
+    public MetricsSnapshot last() {
+        return last;
+    }
+
+    public void export(MetricsSnapshot snapshot) {
+        last = snapshot;
+        if (json == null) {
+            return;
+        }
+        try {
+            for (MetricsSnapshot.CommandStats c : snapshot.commands()) {
+                LatencyHistogram h = c.interval();
+                latencyCsv.write(snapshot.timestamp() + "," + snapshot.elapsedMillis() + "," + c.type() + "," + c.sent()
+                                 + "," + c.answered() + "," + c.timeouts() + "," + c.failures() + ","
+                                 + c.intervalAnswered() + "," + h.percentile(50) + "," + h.percentile(90) + ","
+                                 + h.percentile(99) + "," + h.percentile(99.9) + "," + h.max() + "\n");
+            }
+            for (Map.Entry<Integer, Long> e : snapshot.resultCodes().entrySet()) {
+                resultCsv.write(snapshot.timestamp() + "," + snapshot.elapsedMillis() + "," + e.getKey() + ","
+                                + e.getValue() + "," + snapshot.intervalResultCodes().get(e.getKey()) + "\n");
+            }
+            json.write(toJson(snapshot).encode());
+            json.newLine();
+            latencyCsv.flush();
+            resultCsv.flush();
+            json.flush();
+        } catch (IOException e) {
+            LOGGER.severe("Unable to export metrics | cause:" + e.getMessage());
+        }
+    }
+
+    public static JsonObject toJson(MetricsSnapshot snapshot) {
+        JsonArray commands = new JsonArray();
+        for (MetricsSnapshot.CommandStats c : snapshot.commands()) {
+            commands.add(new JsonObject().put("command", c.type().toString())
+                                 .put("sent", c.sent())
+                                 .put("answered", c.answered())
+                                 .put("timeouts", c.timeouts())
+                                 .put("failures", c.failures())
+                                 .put("intervalAnswered", c.intervalAnswered())
+                                 .put("intervalLatencyMicros", latencies(c.interval()))
+                                 .put("totalLatencyMicros", latencies(c.total())));
+        }
+        JsonObject codes = new JsonObject();
+        snapshot.resultCodes().forEach((code, count) -> codes.put(code.toString(), count));
+        return new JsonObject().put("timestamp", snapshot.timestamp())
+                .put("elapsedMillis", snapshot.elapsedMillis())
+                .put("tps", snapshot.intervalTps())
+                .put("inFlight", snapshot.inFlight())
+                .put("reconnects", snapshot.reconnects())
+                .put("resultCodes", codes)
+                .put("commands", commands);
+    }
+
+    private static JsonObject latencies(LatencyHistogram h) {
+        return new JsonObject().put("count", h.count())
+                .put("p50", h.percentile(50))
+                .put("p90", h.percentile(90))
+                .put("p99", h.percentile(99))
+                .put("p999", h.percentile(99.9))
+                .put("max", h.max());
+    }
+
+    public static String prometheus(MetricsSnapshot snapshot) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE diameter_requests_total counter\n");
+        snapshot.commands()
+                .forEach(c -> sb.append("diameter_requests_total{command=\"").append(c.type()).append("\"} ")
+                        .append(c.sent()).append('\n'));
+        sb.append("# TYPE diameter_answers_total counter\n");
+        snapshot.commands()
+                .forEach(c -> sb.append("diameter_answers_total{command=\"").append(c.type()).append("\"} ")
+                        .append(c.answered()).append('\n'));
+        sb.append("# TYPE diameter_timeouts_total counter\n");
+        snapshot.commands()
+                .forEach(c -> sb.append("diameter_timeouts_total{command=\"").append(c.type()).append("\"} ")
+                        .append(c.timeouts()).append('\n'));
+        sb.append("# TYPE diameter_failures_total counter\n");
+        snapshot.commands()
+                .forEach(c -> sb.append("diameter_failures_total{command=\"").append(c.type()).append("\"} ")
+                        .append(c.failures()).append('\n'));
+        sb.append("# TYPE diameter_result_codes_total counter\n");
+        snapshot.resultCodes()
+                .forEach((code, count) -> sb.append("diameter_result_codes_total{code=\"").append(code).append("\"} ")
+                        .append(count).append('\n'));
+        sb.append("# TYPE diameter_reconnects_total counter\n");
+        sb.append("diameter_reconnects_total ").append(snapshot.reconnects()).append('\n');
+        sb.append("# TYPE diameter_in_flight gauge\n");
+        sb.append("diameter_in_flight ").append(snapshot.inFlight()).append('\n');
+        sb.append("# TYPE diameter_latency_seconds summary\n");
+        for (MetricsSnapshot.CommandStats c : snapshot.commands()) {
+            for (double q : QUANTILES) {
+                sb.append("diameter_latency_seconds{command=\"").append(c.type()).append("\",quantile=\"").append(q)
+                        .append("\"} ").append(c.total().percentile(q * 100) / 1e6).append('\n');
+            }
+            sb.append("diameter_latency_seconds_count{command=\"").append(c.type()).append("\"} ")
+                    .append(c.total().count()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.close();
+        }
+        try {
+            if (json != null) {
+                latencyCsv.close();
+                resultCsv.close();
+                json.close();
+            }
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.optiva;
+
+import java.util.List;
+import java.util.Map;
+
+public record MetricsSnapshot(long timestamp,
+                              long elapsedMillis,
+                              long intervalMillis,
+                              List<CommandStats> commands,
+                              Map<Integer, Long> resultCodes,
+                              Map<Integer, Long> intervalResultCodes,
+                              long reconnects,
+                              long inFlight) {
+
+    public record CommandStats(RequestType type,
+                               long sent,
+                               long answered,
+                               long timeouts,
+                               long failures,
+                               long intervalAnswered,
+                               LatencyHistogram interval,
+                               LatencyHistogram total) {
+    }
+
+    public long answered() {
+        return commands.stream().mapToLong(CommandStats::answered).sum();
+    }
+
+    public long intervalAnswered() {
+        return commands.stream().mapToLong(CommandStats::intervalAnswered).sum();
+    }
+
+    public long sent() {
+        return commands.stream().mapToLong(CommandStats::sent).sum();
+    }
+
+    public long timeouts() {
+        return commands.stream().mapToLong(CommandStats::timeouts).sum();
+    }
+
+    public long failures() {
+        return commands.stream().mapToLong(CommandStats::failures).sum();
+    }
+
+    public long intervalTps() {
+        return intervalMillis == 0 ? 0 : intervalAnswered() * 1000 / intervalMillis;
+    }
+}
@@ -0,0 +1,124 @@
+package com.optiva;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Blocking socket transport; a dedicated reader thread dispatches answers to their callers and a
+ * {@link BatchingWriter} coalesces outgoing messages.
+ */
+public class MultiplexedConnection implements DiameterConnection {
+    private static final Logger LOGGER = Logger.getLogger(MultiplexedConnection.class.getSimpleName());
+    private final FramedSocket socket;
+    private final Map<Integer, CompletableFuture<CreditControlAnswer>> pending = new ConcurrentHashMap<>();
+    private final BatchingWriter writer;
+    private volatile boolean open = true;
+
+    /**
+     * @param writeBatch messages coalesced into one write at most, 1 to write each message on the sender's thread
+     * @param flushMicros how long the first message of a batch may wait for the batch to fill
+     */
+    public MultiplexedConnection(FramedSocket socket,
+                                 String name,
+                                 int writeBatch,
+                                 long flushMicros) throws IOException {
+        this.socket = socket;
+        this.socket.socket().setSoTimeout(0);
+        this.writer = new BatchingWriter(socket, name, writeBatch, flushMicros, this::close);
+        Thread reader = new Thread(this::readLoop, name + "-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public CompletableFuture<CreditControlAnswer> send(int hopByHopId, byte[] request) {
+        CompletableFuture<CreditControlAnswer> answer = new CompletableFuture<>();
+        pending.put(hopByHopId, answer);
+        if (!open) {
+            pending.remove(hopByHopId);
+            answer.completeExceptionally(new SocketException("Connection closed"));
+            return answer;
+        }
+        try {
+            CaptureWriter.recordRequest(request);
+            writer.write(request);
+        } catch (IOException e) {
+            pending.remove(hopByHopId);
+            answer.completeExceptionally(e);
+            close();
+        }
+        return answer;
+    }
+
+    @Override
+    public void abandon(int hopByHopId) {
+        pending.remove(hopByHopId);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int inFlight() {
+        return pending.size();
+    }
+
+    private void readLoop() {
+        DiameterFrameDecoder decoder = socket.decoder();
+        AnswerDecoder answers = new AnswerDecoder();
+        try {
+            while (open) {
+                socket.read();
+                while (decoder.hasFrame()) {
+                    if (decoder.isRequest()) {
+                        writer.write(decoder.answerFrame());
+                    } else {
+                        CompletableFuture<CreditControlAnswer> answer = pending.remove(decoder.hopByHopId());
+                        CaptureWriter.recordAnswer(decoder.array(), decoder.frameOffset());
+                        if (answer != null) {
+                            answer.complete(answers.decode(decoder.array(), decoder.frameOffset()).toAnswer());
+                        } else if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.fine("Unmatched answer | hopByHopId:" + decoder.hopByHopId());
+                        }
+                    }
+                    decoder.skipFrame();
+                }
+            }
+        } catch (Exception e) {
+            if (open) {
+                LOGGER.severe("Connection lost | cause:" + e.getMessage());
+            }
+            open = false;
+            failPending(e instanceof SocketException ? e : new SocketException(e.getMessage()));
+        } finally {
+            close();
+        }
+    }
+
+    private void failPending(Exception cause) {
+        for (Integer hopByHopId : pending.keySet()) {
+            CompletableFuture<CreditControlAnswer> answer = pending.remove(hopByHopId);
+            if (answer != null) {
+                answer.completeExceptionally(cause);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        writer.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.optiva;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Starts sessions at fixed intended times regardless of how long earlier sessions took.
+ * Each session receives its intended start so latencies can be measured from when the request should have gone out.
+ * With a {@link LoadControl} the time between starts follows its current rate, and no session starts while it is
+ * paused.
+ */
+public class OpenLoopScheduler implements Runnable {
+    private final LoadControl control;
+    private final long periodNanos;
+    private final long durationNanos;
+    private final Executor executor;
+    private final LongConsumer session;
+
+    public OpenLoopScheduler(double sessionsPerSecond, int duration, Executor executor, LongConsumer session) {
+        this(null, (long) (TimeUnit.SECONDS.toNanos(1) / sessionsPerSecond), duration, executor, session);
+    }
+
+    public OpenLoopScheduler(LoadControl control, int duration, Executor executor, LongConsumer session) {
+        this(control, 0, duration, executor, session);
+    }
+
+    private OpenLoopScheduler(LoadControl control,
+                              long periodNanos,
+                              int duration,
+                              Executor executor,
+                              LongConsumer session) {
+        this.control = control;
+        this.periodNanos = periodNanos;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(duration);
+        this.executor = executor;
+        this.session = session;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        long intendedStart = start;
+        long period = periodNanos();
+        try {
+            while (intendedStart < end) {
+                if (control == null) {
+                    sleepUntil(intendedStart);
+                } else {
+                    while (!control.sleepUntil(intendedStart)) {
+                        long previous = intendedStart - period;
+                        period = periodNanos();
+                        intendedStart = Math.max(previous + period, System.nanoTime());
+                    }
+                    if (control.awaitResume(end)) {
+                        intendedStart = System.nanoTime();
+                    }
+                    if (intendedStart >= end) {
+                        return;
+                    }
+                }
+                long scheduled = intendedStart;
+                executor.execute(() -> session.accept(scheduled));
+                period = periodNanos();
+                intendedStart += period;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long periodNanos() {
+        return control == null ? periodNanos : control.sessionPeriodNanos();
+    }
+
+    public static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+}
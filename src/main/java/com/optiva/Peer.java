@@ -0,0 +1,34 @@
+package com.optiva;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Diameter server and its share of the load relative to the other peers.
+ */
+public record Peer(String host, int port, int weight) {
+
+    public Peer {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Peer weight must be positive: " + host + ":" + port);
+        }
+    }
+
+    /**
+     * Parses {@code host:port[:weight],...}; the weight defaults to 1.
+     */
+    public static List<Peer> parse(String peers) {
+        return Arrays.stream(peers.split(",")).map(String::trim).filter(s -> !s.isEmpty()).map(s -> {
+            String[] parts = s.split(":");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Invalid peer: " + s);
+            }
+            return new Peer(parts[0], Integer.parseInt(parts[1]), parts.length == 3 ? Integer.parseInt(parts[2]) : 1);
+        }).toList();
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
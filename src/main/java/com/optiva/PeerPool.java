@@ -0,0 +1,141 @@
+package com.optiva;
+
+import java.io.Closeable;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * A fixed number of connections to every peer, picked by smooth weighted round robin.
+ * Closed connections are skipped and reopened in the background, so callers fail over to the remaining
+ * connections instead of blocking on a reconnect.
+ */
+public class PeerPool implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PeerPool.class.getSimpleName());
+    private final List<Peer> peers;
+    private final int connectionsPerPeer;
+    private final Function<Peer, DiameterConnection> connector;
+    private final ConnectionOpener opener;
+    private final Runnable onReconnect;
+    private final int[] schedule;
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicReferenceArray<DiameterConnection> connections;
+    private final Set<Integer> reconnecting = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * @param connector opens one connection to the given peer, throwing if it cannot
+     */
+    public PeerPool(List<Peer> peers,
+                    int connectionsPerPeer,
+                    Function<Peer, DiameterConnection> connector,
+                    ConnectionOpener opener,
+                    Runnable onReconnect) {
+        this.peers = peers;
+        this.connectionsPerPeer = connectionsPerPeer;
+        this.connector = connector;
+        this.opener = opener;
+        this.onReconnect = onReconnect;
+        this.schedule = schedule(peers);
+        this.connections = new AtomicReferenceArray<>(peers.size() * connectionsPerPeer);
+    }
+
+    private static int[] schedule(List<Peer> peers) {
+        int[] schedule = new int[peers.stream().mapToInt(Peer::weight).sum()];
+        int[] current = new int[peers.size()];
+        for (int s = 0; s < schedule.length; s++) {
+            int best = 0;
+            for (int p = 0; p < current.length; p++) {
+                current[p] += peers.get(p).weight();
+                if (current[p] > current[best]) {
+                    best = p;
+                }
+            }
+            current[best] -= schedule.length;
+            schedule[s] = best;
+        }
+        return schedule;
+    }
+
+    public List<Peer> peers() {
+        return peers;
+    }
+
+    public Peer nextPeer() {
+        return peers.get(schedule[Math.floorMod(cursor.getAndIncrement(), schedule.length)]);
+    }
+
+    /**
+     * Opens every connection in the background and waits until {@code required} of them are up; the rest keep
+     * connecting while the load runs.
+     */
+    public void open(int required) throws InterruptedException {
+        for (int slot = 0; slot < connections.length(); slot++) {
+            reconnect(slot);
+        }
+        ConnectionOpener.awaitReady(this::openConnections, connections.length(), required);
+    }
+
+    public DiameterConnection next() throws SocketException {
+        int start = cursor.getAndIncrement();
+        for (int attempt = 0; attempt < connections.length(); attempt++) {
+            int c = start + attempt;
+            int slot = schedule[Math.floorMod(c, schedule.length)] * connectionsPerPeer
+                       + Math.floorMod(Math.floorDiv(c, schedule.length), connectionsPerPeer);
+            DiameterConnection connection = connections.get(slot);
+            if (connection != null && connection.isOpen()) {
+                return connection;
+            }
+            reconnect(slot);
+        }
+        throw new SocketException("No open connection to any peer");
+    }
+
+    public int openConnections() {
+        int open = 0;
+        for (int slot = 0; slot < connections.length(); slot++) {
+            DiameterConnection connection = connections.get(slot);
+            if (connection != null && connection.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    private Peer peer(int slot) {
+        return peers.get(slot / connectionsPerPeer);
+    }
+
+    private void reconnect(int slot) {
+        if (closed || !reconnecting.add(slot)) {
+            return;
+        }
+        Peer peer = peer(slot);
+        opener.open(peer.toString(), () -> connector.apply(peer), connection -> {
+            if (connections.getAndSet(slot, connection) != null) {
+                LOGGER.info("Reconnected to " + peer);
+                onReconnect.run();
+            }
+            reconnecting.remove(slot);
+            if (closed) {
+                connection.close();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (int slot = 0; slot < connections.length(); slot++) {
+            DiameterConnection connection = connections.get(slot);
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+}
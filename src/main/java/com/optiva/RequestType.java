@@ -0,0 +1,18 @@
+package com.optiva;
+
+public enum RequestType {
+    CCR_I("CCR-i"),
+    CCR_U("CCR-u"),
+    CCR_T("CCR-t");
+
+    private final String label;
+
+    RequestType(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
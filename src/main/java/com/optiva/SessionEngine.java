@@ -0,0 +1,222 @@
+package com.optiva;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import static com.optiva.DiameterLoadRunner.ANSWER_TIMEOUT;
+
+/**
+ * Runs long-lived sessions out of a {@link SessionTable} instead of a thread per session. One driver thread opens
+ * sessions at a fixed rate and, as a {@link TimerWheel} fires, sends each session's next CCR-U or CCR-T; answers are
+ * handled on the connections' reader threads and re-arm the session's timer. Latency is measured from the time each
+ * message was due. The arrival rate and the interval between messages are read from a {@link LoadControl} as they are
+ * used.
+ */
+public class SessionEngine implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(SessionEngine.class.getSimpleName());
+    private static final int BATCH = 4096;
+    private static final RequestType[] TYPES = RequestType.values();
+    private final DiameterLoadRunner loadRunner;
+    private final LoadMetrics metrics;
+    private final SessionTable table;
+    private final TimerWheel wheel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CcrTemplate[] templates = new CcrTemplate[TYPES.length];
+    private final LoadControl control;
+    private final long startNanos = System.nanoTime();
+    private final long endNanos;
+    private final int updates;
+    private final SubscriberKeyspace subscribers;
+    // at most 9e18 plus the keys of one run, so keys stay below Long.MAX_VALUE and never go negative
+    private final long keyBase = System.currentTimeMillis() / 1000 % 9_000_000L * 1_000_000_000_000L;
+    private long nextKey;
+    private final int[] expired = new int[BATCH];
+    private final int[] stagedHandle = new int[BATCH];
+    private final byte[] stagedType = new byte[BATCH];
+    private final long[] stagedKey = new long[BATCH];
+    private final long[] stagedMsisdn = new long[BATCH];
+    private final int[] stagedRequestNumber = new int[BATCH];
+    private final int[] stagedRatingGroup = new int[BATCH];
+    private final long[] stagedDue = new long[BATCH];
+
+    public SessionEngine(DiameterLoadRunner loadRunner,
+                         LoadMetrics metrics,
+                         LoadControl control,
+                         int maxSessions,
+                         int duration,
+                         int updates,
+                         SubscriberKeyspace subscribers) {
+        this.loadRunner = loadRunner;
+        this.metrics = metrics;
+        this.control = control;
+        this.table = new SessionTable(maxSessions);
+        this.wheel = new TimerWheel(maxSessions, 4096, TimeUnit.MILLISECONDS.toNanos(1), startNanos);
+        this.endNanos = startNanos + TimeUnit.SECONDS.toNanos(duration);
+        this.updates = updates;
+        this.subscribers = subscribers;
+    }
+
+    @Override
+    public void run() {
+        long lastArrival = startNanos - control.sessionPeriodNanos();
+        boolean wasPaused = false;
+        boolean full = false;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                int staged = 0;
+                long nextTick;
+                boolean paused = control.isPaused();
+                long periodNanos = control.sessionPeriodNanos();
+                if (wasPaused && !paused) {
+                    lastArrival = Math.max(lastArrival, now - periodNanos);
+                }
+                wasPaused = paused;
+                lock.lock();
+                try {
+                    while (!paused && lastArrival + periodNanos <= now && lastArrival + periodNanos < endNanos
+                           && staged < BATCH) {
+                        lastArrival += periodNanos;
+                        long msisdn = subscribers.acquire();
+                        if (msisdn < 0) {
+                            continue;
+                        }
+                        int handle = table.open(keyBase + ++nextKey, msisdn, ratingGroup(), updates);
+                        if (handle >= 0) {
+                            stage(staged++, handle, RequestType.CCR_I, lastArrival);
+                        } else {
+                            subscribers.release(msisdn);
+                            if (!full) {
+                                LOGGER.severe("Session table full at " + table.capacity()
+                                              + " sessions, skipping arrivals");
+                                full = true;
+                            }
+                        }
+                    }
+                    int count = wheel.expire(now, expired, BATCH - staged);
+                    for (int i = 0; i < count; i++) {
+                        int handle = expired[i];
+                        table.ratingGroup(handle, ratingGroup());
+                        RequestType type = table.takeUpdate(handle) > 0 ? RequestType.CCR_U : RequestType.CCR_T;
+                        table.use(handle, DiameterClient.getChargeValue());
+                        stage(staged++, handle, type, table.due(handle));
+                    }
+                    if (staged == 0 && now >= endNanos && table.size() == 0) {
+                        break;
+                    }
+                    nextTick = paused
+                               ? wheel.nextTickNanos()
+                               : Math.min(wheel.nextTickNanos(), Math.max(lastArrival + periodNanos, now));
+                } finally {
+                    lock.unlock();
+                }
+                for (int i = 0; i < staged; i++) {
+                    send(i);
+                }
+                if (staged < BATCH) {
+                    OpenLoopScheduler.sleepUntil(nextTick);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int ratingGroup() {
+        int[] ratingGroups = DiameterClient.ratingGroups;
+        return ratingGroups[ThreadLocalRandom.current().nextInt(ratingGroups.length)];
+    }
+
+    private void stage(int i, int handle, RequestType type, long due) {
+        stagedHandle[i] = handle;
+        stagedType[i] = (byte) type.ordinal();
+        stagedKey[i] = table.key(handle);
+        stagedMsisdn[i] = table.msisdn(handle);
+        stagedRequestNumber[i] = table.nextRequestNumber(handle);
+        stagedRatingGroup[i] = table.ratingGroup(handle);
+        stagedDue[i] = due;
+    }
+
+    private void send(int i) {
+        int handle = stagedHandle[i];
+        long key = stagedKey[i];
+        long due = stagedDue[i];
+        RequestType type = TYPES[stagedType[i]];
+        int msisdnLength = CcrTemplate.decimalLength(stagedMsisdn[i]);
+        CcrTemplate template = templates[type.ordinal()];
+        if (template == null || !template.fits(CcrTemplate.SESSION_KEY_LENGTH, msisdnLength)) {
+            templates[type.ordinal()] = template = CcrTemplate.of(type, CcrTemplate.SESSION_KEY_LENGTH, msisdnLength);
+        }
+        int hopByHopId = DiameterIds.nextHopByHopId();
+        byte[] request = template.render(hopByHopId,
+                                         DiameterIds.nextEndToEndId(),
+                                         key,
+                                         stagedMsisdn[i],
+                                         stagedRequestNumber[i],
+                                         stagedRatingGroup[i],
+                                         type == RequestType.CCR_I ? 0 : DiameterClient.getChargeValue());
+        metrics.requestSent(type);
+        DiameterConnection connection;
+        CompletableFuture<CreditControlAnswer> answer;
+        try {
+            connection = loadRunner.nextConnection();
+            answer = connection.send(hopByHopId, request);
+        } catch (Exception e) {
+            metrics.requestFailed(type);
+            close(handle, key);
+            return;
+        }
+        answer.orTimeout(ANSWER_TIMEOUT, TimeUnit.MILLISECONDS).whenComplete((cca, e) -> {
+            if (e != null) {
+                if (e instanceof TimeoutException) {
+                    connection.abandon(hopByHopId);
+                    metrics.requestTimedOut(type);
+                } else {
+                    metrics.requestFailed(type);
+                }
+                close(handle, key);
+            } else {
+                onAnswer(handle, key, type, due, cca);
+            }
+        });
+    }
+
+    private void onAnswer(int handle, long key, RequestType type, long due, CreditControlAnswer cca) {
+        metrics.answerReceived(type, cca.resultCode(), System.nanoTime() - due);
+        lock.lock();
+        try {
+            if (!table.isOpen(handle, key)) {
+                return;
+            }
+            if (cca.resultCode() != 2001 || type == RequestType.CCR_T) {
+                subscribers.release(table.msisdn(handle));
+                table.close(handle);
+                return;
+            }
+            if (cca.grantedOctets() >= 0) {
+                table.granted(handle, cca.grantedOctets());
+            }
+            long next = due + TimeUnit.MILLISECONDS.toNanos(control.callSleep());
+            table.due(handle, next);
+            wheel.schedule(handle, next);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close(int handle, long key) {
+        lock.lock();
+        try {
+            if (table.isOpen(handle, key)) {
+                subscribers.release(table.msisdn(handle));
+                table.close(handle);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
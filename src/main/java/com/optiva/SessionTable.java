@@ -0,0 +1,125 @@
+package com.optiva;
+
+/**
+ * Fixed-capacity store of open session state, one 64-byte record per session in a single {@code long[]}, addressed by
+ * an int handle. Opening and closing sessions allocates nothing, so millions of long-lived sessions cost the GC one
+ * array. Each session holds one rating group, as every CCR the generator sends carries a single
+ * Multiple-Services-Credit-Control. Not thread-safe; callers guard it.
+ */
+public final class SessionTable {
+    private static final int KEY = 0;
+    private static final int MSISDN = 1;
+    private static final int GRANTED = 2;
+    private static final int USED = 3;
+    private static final int DUE = 4;
+    private static final int REQUEST_NUMBER = 5;
+    private static final int RATING_GROUP = 6;
+    private static final int UPDATES_LEFT = 7;
+    private static final int STRIDE = 8;
+    private final long[] records;
+    private final int[] free;
+    private int freeCount;
+
+    public SessionTable(int capacity) {
+        this.records = new long[capacity * STRIDE];
+        this.free = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+    }
+
+    /**
+     * @param key non-zero id of the session; the slot is reused under a new key once closed
+     * @return the handle of the new session, or -1 if the table is full
+     */
+    public int open(long key, long msisdn, int ratingGroup, int updates) {
+        if (freeCount == 0) {
+            return -1;
+        }
+        int handle = free[--freeCount];
+        int base = handle * STRIDE;
+        records[base + KEY] = key;
+        records[base + MSISDN] = msisdn;
+        records[base + GRANTED] = 0;
+        records[base + USED] = 0;
+        records[base + DUE] = 0;
+        records[base + REQUEST_NUMBER] = 0;
+        records[base + RATING_GROUP] = ratingGroup;
+        records[base + UPDATES_LEFT] = updates;
+        return handle;
+    }
+
+    public void close(int handle) {
+        records[handle * STRIDE + KEY] = 0;
+        free[freeCount++] = handle;
+    }
+
+    public boolean isOpen(int handle, long key) {
+        return records[handle * STRIDE + KEY] == key;
+    }
+
+    public long key(int handle) {
+        return records[handle * STRIDE + KEY];
+    }
+
+    public long msisdn(int handle) {
+        return records[handle * STRIDE + MSISDN];
+    }
+
+    public long granted(int handle) {
+        return records[handle * STRIDE + GRANTED];
+    }
+
+    public void granted(int handle, long units) {
+        records[handle * STRIDE + GRANTED] = units;
+    }
+
+    public long used(int handle) {
+        return records[handle * STRIDE + USED];
+    }
+
+    public void use(int handle, long units) {
+        records[handle * STRIDE + USED] += units;
+    }
+
+    public long due(int handle) {
+        return records[handle * STRIDE + DUE];
+    }
+
+    public void due(int handle, long nanos) {
+        records[handle * STRIDE + DUE] = nanos;
+    }
+
+    public int nextRequestNumber(int handle) {
+        return (int) records[handle * STRIDE + REQUEST_NUMBER]++;
+    }
+
+    public int ratingGroup(int handle) {
+        return (int) records[handle * STRIDE + RATING_GROUP];
+    }
+
+    public void ratingGroup(int handle, int ratingGroup) {
+        records[handle * STRIDE + RATING_GROUP] = ratingGroup;
+    }
+
+    /**
+     * @return the number of CCR-Us still to send before this one was taken, or 0 if the next message is the CCR-T
+     */
+    public int takeUpdate(int handle) {
+        int base = handle * STRIDE + UPDATES_LEFT;
+        long left = records[base];
+        if (left > 0) {
+            records[base] = left - 1;
+        }
+        return (int) left;
+    }
+
+    public int size() {
+        return free.length - freeCount;
+    }
+
+    public int capacity() {
+        return free.length;
+    }
+}
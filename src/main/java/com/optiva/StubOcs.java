@@ -0,0 +1,350 @@
+package com.optiva;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Stub Gy server that answers CER, DWR and CCR-I/U/T straight from the request bytes, so the client can be measured
+ * against a peer that is never the bottleneck. Answers can be delayed, drawn from a weighted Result-Code mix, and
+ * connections can be dropped at random in place of an answer. Runs standalone or inside the load runner.
+ */
+public class StubOcs implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(StubOcs.class.getSimpleName());
+    private static final int HOST_IP_ADDRESS = 257;
+    private static final int AUTH_APPLICATION_ID = 258;
+    private static final int VENDOR_ID = 266;
+    private static final int PRODUCT_NAME = 269;
+    private static final int ORIGIN_HOST = 264;
+    private static final int ORIGIN_REALM = 296;
+    private static final int CC_REQUEST_TYPE = 416;
+    private static final int TERMINATION_REQUEST = 3;
+    private static final int COMMAND_UNSUPPORTED = 3001;
+    private static final byte[] HOST = "stub.ocs".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REALM = "ocs".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PRODUCT = "stub-ocs".getBytes(StandardCharsets.US_ASCII);
+    private final ServerSocket server;
+    private final byte[] hostAddress;
+    private final long delayMillis;
+    private final int[] resultCodes;
+    private final int[] cumulativeWeights;
+    private final double disconnectRatio;
+    private final long grantedOctets;
+    private final ScheduledExecutorService delayer;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    /**
+     * @param resultCodeMix weighted Result-Codes for CCAs as {@code code:weight,...}, e.g. {@code 2001:99,4012:1}
+     * @param disconnectRatio share of CCRs that close the connection instead of being answered
+     */
+    public StubOcs(int port, long delayMillis, String resultCodeMix, double disconnectRatio, long grantedOctets)
+            throws IOException {
+        String[] entries = resultCodeMix.split(",");
+        this.resultCodes = new int[entries.length];
+        this.cumulativeWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            resultCodes[i] = Integer.parseInt(parts[0]);
+            total += parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            cumulativeWeights[i] = total;
+        }
+        this.delayMillis = delayMillis;
+        this.disconnectRatio = disconnectRatio;
+        this.grantedOctets = grantedOctets;
+        this.delayer = delayMillis > 0
+                       ? Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                          Thread.ofPlatform().name("stub-delay-", 0).daemon()
+                                                                  .factory())
+                       : null;
+        this.hostAddress = address(InetAddress.getLocalHost());
+        this.server = new ServerSocket(port);
+        Thread.ofPlatform().name("stub-accept").daemon().start(this::accept);
+        LOGGER.info("Stub OCS listening on port " + server.getLocalPort() + ", delay: " + delayMillis
+                    + "ms, result codes: " + resultCodeMix + ", disconnect ratio: " + disconnectRatio);
+    }
+
+    /**
+     * Configured by {@code diameter.stub.*} system properties.
+     */
+    public static StubOcs fromProperties(int port) throws IOException {
+        return new StubOcs(port,
+                           Long.getLong("diameter.stub.delay", 0),
+                           System.getProperty("diameter.stub.resultCodes", "2001"),
+                           Double.parseDouble(System.getProperty("diameter.stub.disconnectRatio", "0")),
+                           Long.getLong("diameter.stub.grantedOctets", 10_000_000));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int reportInterval = Integer.getInteger("diameter.reportInterval", 10);
+        try (StubOcs stub = fromProperties(args.length > 0 ? Integer.parseInt(args[0]) : 3868)) {
+            long previous = 0;
+            while (true) {
+                TimeUnit.SECONDS.sleep(reportInterval);
+                long answers = stub.answered();
+                LOGGER.info("Answers per second: " + (answers - previous) / reportInterval + ", connections: "
+                            + stub.connections.size() + ", disconnects: " + stub.disconnects.sum());
+                previous = answers;
+            }
+        }
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    public long answered() {
+        return answered.sum();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread.ofVirtual().name("stub-" + socket.getPort()).start(() -> serve(socket));
+            } catch (IOException e) {
+                //ignored
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        DiameterFrameDecoder decoder = new DiameterFrameDecoder(64 * 1024);
+        AvpCursor avps = new AvpCursor();
+        AvpCursor group = new AvpCursor();
+        ByteBuffer answer = ByteBuffer.allocate(4096);
+        ReentrantLock writeLock = new ReentrantLock();
+        try (socket) {
+            InputStream in = socket.getInputStream();
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            while (decoder.readFrom(in) >= 0) {
+                writeLock.lock();
+                try {
+                    while (decoder.hasFrame()) {
+                        if (decoder.isRequest()) {
+                            if (decoder.commandCode() == DiameterFrameDecoder.CREDIT_CONTROL
+                                && disconnectRatio > 0 && ThreadLocalRandom.current().nextDouble() < disconnectRatio) {
+                                disconnects.increment();
+                                return;
+                            }
+                            answer.clear();
+                            encodeAnswer(decoder.array(), decoder.frameOffset(), avps, group, answer);
+                            if (delayer == null) {
+                                out.write(answer.array(), 0, answer.position());
+                                answered.increment();
+                            } else {
+                                byte[] delayed = Arrays.copyOf(answer.array(), answer.position());
+                                delayer.schedule(() -> writeDelayed(writeLock, out, delayed),
+                                                 delayMillis,
+                                                 TimeUnit.MILLISECONDS);
+                            }
+                        }
+                        decoder.skipFrame();
+                    }
+                    out.flush();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            //ignored
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private void writeDelayed(ReentrantLock writeLock, OutputStream out, byte[] answer) {
+        writeLock.lock();
+        try {
+            out.write(answer);
+            out.flush();
+            answered.increment();
+        } catch (IOException e) {
+            //ignored
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the answer to the request at {@code offset} into {@code answer}, from its current position.
+     */
+    void encodeAnswer(byte[] request, int offset, AvpCursor avps, AvpCursor group, ByteBuffer answer) {
+        int start = answer.position();
+        answer.put(request, offset, DiameterFrameDecoder.HEADER_LENGTH);
+        answer.put(start + 4, (byte) (request[offset + 4] & 0x7F));
+        switch (AvpCursor.readInt(request, offset + 4) & 0xFFFFFF) {
+            case DiameterFrameDecoder.CAPABILITIES_EXCHANGE -> {
+                putInt(answer, AvpCursor.RESULT_CODE, 2001);
+                putIdentity(answer);
+                putBytes(answer, HOST_IP_ADDRESS, hostAddress);
+                putInt(answer, VENDOR_ID, 0);
+                putBytes(answer, PRODUCT_NAME, PRODUCT);
+                putInt(answer, AUTH_APPLICATION_ID, 4);
+            }
+            case DiameterFrameDecoder.DEVICE_WATCHDOG -> {
+                putInt(answer, AvpCursor.RESULT_CODE, 2001);
+                putIdentity(answer);
+            }
+            case DiameterFrameDecoder.CREDIT_CONTROL -> encodeCreditControlAnswer(request, offset, avps, group, answer);
+            default -> {
+                answer.put(start + 4, (byte) (answer.get(start + 4) | 0x20));
+                putInt(answer, AvpCursor.RESULT_CODE, COMMAND_UNSUPPORTED);
+                putIdentity(answer);
+            }
+        }
+        int length = answer.position() - start;
+        answer.put(start + 1, (byte) (length >>> 16));
+        answer.put(start + 2, (byte) (length >>> 8));
+        answer.put(start + 3, (byte) length);
+    }
+
+    private void encodeCreditControlAnswer(byte[] request,
+                                           int offset,
+                                           AvpCursor avps,
+                                           AvpCursor group,
+                                           ByteBuffer answer) {
+        int resultCode = nextResultCode();
+        int requestType = 0;
+        int ratingGroup = -1;
+        // RFC 6733 section 8.8: Session-Id comes first, wherever the request put it
+        if (avps.wrapMessage(request, offset).find(AvpCursor.SESSION_ID)) {
+            copy(request, avps, answer);
+        }
+        avps.wrapMessage(request, offset);
+        while (avps.next()) {
+            switch (avps.code()) {
+                case CC_REQUEST_TYPE -> {
+                    requestType = avps.intValue();
+                    copy(request, avps, answer);
+                }
+                case AvpCursor.CC_REQUEST_NUMBER -> copy(request, avps, answer);
+                case AvpCursor.MULTIPLE_SERVICES_CREDIT_CONTROL -> {
+                    if (ratingGroup < 0 && avps.enter(group).find(AvpCursor.RATING_GROUP)) {
+                        ratingGroup = group.intValue();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        putInt(answer, AvpCursor.RESULT_CODE, resultCode);
+        putIdentity(answer);
+        putInt(answer, AUTH_APPLICATION_ID, 4);
+        if (resultCode == 2001 && requestType != TERMINATION_REQUEST) {
+            int mscc = begin(answer, AvpCursor.MULTIPLE_SERVICES_CREDIT_CONTROL);
+            int gsu = begin(answer, AvpCursor.GRANTED_SERVICE_UNIT);
+            putLong(answer, AvpCursor.CC_TOTAL_OCTETS, grantedOctets);
+            end(answer, gsu);
+            if (ratingGroup >= 0) {
+                putInt(answer, AvpCursor.RATING_GROUP, ratingGroup);
+            }
+            putInt(answer, AvpCursor.RESULT_CODE, 2001);
+            end(answer, mscc);
+        }
+    }
+
+    private int nextResultCode() {
+        if (resultCodes.length == 1) {
+            return resultCodes[0];
+        }
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= pick) {
+            i++;
+        }
+        return resultCodes[i];
+    }
+
+    private static void putIdentity(ByteBuffer answer) {
+        putBytes(answer, ORIGIN_HOST, HOST);
+        putBytes(answer, ORIGIN_REALM, REALM);
+    }
+
+    /**
+     * The Address format of a Host-IP-Address: a two byte address family followed by the address.
+     */
+    private static byte[] address(InetAddress host) {
+        byte[] ip = host.getAddress();
+        return ByteBuffer.allocate(2 + ip.length).putShort((short) (host instanceof Inet4Address ? 1 : 2)).put(ip)
+                .array();
+    }
+
+    private static void copy(byte[] request, AvpCursor avp, ByteBuffer answer) {
+        answer.put(request, avp.avpOffset(), avp.length());
+        pad(answer);
+    }
+
+    private static int begin(ByteBuffer answer, int code) {
+        int start = answer.position();
+        answer.putInt(code);
+        answer.putInt(0x40 << 24);
+        return start;
+    }
+
+    private static void end(ByteBuffer answer, int start) {
+        answer.putInt(start + 4, 0x40 << 24 | answer.position() - start);
+    }
+
+    private static void putInt(ByteBuffer answer, int code, int value) {
+        answer.putInt(code);
+        answer.putInt(0x40 << 24 | 12);
+        answer.putInt(value);
+    }
+
+    private static void putLong(ByteBuffer answer, int code, long value) {
+        answer.putInt(code);
+        answer.putInt(0x40 << 24 | 16);
+        answer.putLong(value);
+    }
+
+    private static void putBytes(ByteBuffer answer, int code, byte[] value) {
+        answer.putInt(code);
+        answer.putInt(0x40 << 24 | 8 + value.length);
+        answer.put(value);
+        pad(answer);
+    }
+
+    private static void pad(ByteBuffer answer) {
+        while ((answer.position() & 3) != 0) {
+            answer.put((byte) 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //ignored
+            }
+        }
+        if (delayer != null) {
+            delayer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.optiva;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * The subscribers of a run: MSISDNs {@code rangeStart + 1} to {@code rangeStart + count}, picked by a
+ * {@link SubscriberSelector}. With a limit, no subscriber takes part in more than that many sessions at once; the
+ * in-use counts are 8-bit fields packed into an {@link AtomicLongArray} and updated by compare-and-set, one byte per
+ * subscriber with no locks, and a pick that lands on a busy subscriber is redrawn.
+ */
+public class SubscriberKeyspace {
+    private static final Logger LOGGER = Logger.getLogger(SubscriberKeyspace.class.getSimpleName());
+    private static final int ATTEMPTS = 64;
+    private final long rangeStart;
+    private final long count;
+    private final SubscriberSelector selector;
+    private final int maxSessions;
+    private final AtomicLongArray inUse;
+    private final AtomicBoolean exhaustedLogged = new AtomicBoolean();
+
+    /**
+     * @param maxSessions concurrent sessions allowed per subscriber, up to 255; 0 for no limit
+     */
+    public SubscriberKeyspace(long rangeStart, long count, SubscriberSelector selector, int maxSessions) {
+        if (maxSessions > 255) {
+            throw new IllegalArgumentException("At most 255 sessions per subscriber can be tracked: " + maxSessions);
+        }
+        this.rangeStart = rangeStart;
+        this.count = count;
+        this.selector = selector;
+        this.maxSessions = maxSessions;
+        this.inUse = maxSessions > 0 ? new AtomicLongArray(Math.toIntExact(Math.ceilDiv(count, 8))) : null;
+    }
+
+    /**
+     * Configured by {@code diameter.subscribers} and {@code diameter.maxSessionsPerSubscriber}.
+     */
+    public static SubscriberKeyspace fromProperties(long rangeStart, long count) {
+        return new SubscriberKeyspace(rangeStart,
+                                      count,
+                                      SubscriberSelector.of(System.getProperty("diameter.subscribers", "uniform"),
+                                                            count),
+                                      Integer.getInteger("diameter.maxSessionsPerSubscriber", 0));
+    }
+
+    /**
+     * @return the MSISDN of the session's subscriber, or -1 if no subscriber with a free slot was drawn; release it
+     * with {@link #release} when the session ends
+     */
+    public long acquire() {
+        if (inUse == null) {
+            return rangeStart + selector.next() + 1;
+        }
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            long index = selector.next();
+            if (tryIncrement(index)) {
+                return rangeStart + index + 1;
+            }
+        }
+        if (exhaustedLogged.compareAndSet(false, true)) {
+            LOGGER.severe("No subscriber with fewer than " + maxSessions + " sessions found in " + ATTEMPTS
+                          + " draws, skipping sessions; widen the subscriber range or raise the limit");
+        }
+        return -1;
+    }
+
+    public void release(long msisdn) {
+        if (inUse == null || msisdn < 0) {
+            return;
+        }
+        long index = msisdn - rangeStart - 1;
+        int word = (int) (index >>> 3);
+        int shift = (int) (index & 7) << 3;
+        long current;
+        do {
+            current = inUse.get(word);
+        } while (!inUse.compareAndSet(word, current, current - (1L << shift)));
+    }
+
+    private boolean tryIncrement(long index) {
+        int word = (int) (index >>> 3);
+        int shift = (int) (index & 7) << 3;
+        long current;
+        do {
+            current = inUse.get(word);
+            if ((current >>> shift & 0xFF) >= maxSessions) {
+                return false;
+            }
+        } while (!inUse.compareAndSet(word, current, current + (1L << shift)));
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+package com.optiva;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks which subscriber of a range of {@code count} the next session belongs to, as an index from 0. Implementations
+ * are thread-safe.
+ */
+public interface SubscriberSelector {
+    long next();
+
+    /**
+     * Parses {@code uniform}, {@code sequential}, {@code zipf[:theta]} (default theta 0.99) or
+     * {@code hotspot[:hotFraction:hotShare]}, where {@code hotShare} of the picks go to the first {@code hotFraction}
+     * of the range (default 0.1:0.9).
+     */
+    static SubscriberSelector of(String spec, long count) {
+        String[] parts = spec.split(":");
+        return switch (parts[0]) {
+            case "uniform" -> () -> ThreadLocalRandom.current().nextLong(count);
+            case "sequential" -> {
+                AtomicLong next = new AtomicLong();
+                yield () -> Math.floorMod(next.getAndIncrement(), count);
+            }
+            case "zipf" -> new ZipfianSelector(count, parts.length > 1 ? Double.parseDouble(parts[1]) : 0.99);
+            case "hotspot" -> {
+                double hotFraction = parts.length > 1 ? Double.parseDouble(parts[1]) : 0.1;
+                double hotShare = parts.length > 2 ? Double.parseDouble(parts[2]) : 0.9;
+                long hot = Math.clamp((long) (count * hotFraction), 1, count);
+                yield () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    return random.nextDouble() < hotShare || hot == count
+                           ? random.nextLong(hot)
+                           : hot + random.nextLong(count - hot);
+                };
+            }
+            default -> throw new IllegalArgumentException("Unknown subscriber distribution: " + spec);
+        };
+    }
+}
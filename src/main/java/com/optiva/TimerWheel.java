@@ -0,0 +1,77 @@
+package com.optiva;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timer wheel over int handles. Slot lists are linked through a primitive array indexed by handle, so
+ * scheduling and expiring allocate nothing. A handle may be scheduled at most once at a time. Not thread-safe.
+ */
+public final class TimerWheel {
+    private final long startNanos;
+    private final long tickNanos;
+    private final int mask;
+    private final int[] heads;
+    private final int[] next;
+    private final long[] deadlines;
+    private long currentTick;
+
+    /**
+     * @param slots rounded up to a power of two
+     */
+    public TimerWheel(int capacity, int slots, long tickNanos, long startNanos) {
+        int size = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+        this.startNanos = startNanos;
+        this.tickNanos = tickNanos;
+        this.mask = size - 1;
+        this.heads = new int[size];
+        this.next = new int[capacity];
+        this.deadlines = new long[capacity];
+        Arrays.fill(heads, -1);
+    }
+
+    public void schedule(int handle, long deadlineNanos) {
+        long tick = Math.max(Math.ceilDiv(deadlineNanos - startNanos, tickNanos), currentTick);
+        int slot = (int) (tick & mask);
+        deadlines[handle] = tick;
+        next[handle] = heads[slot];
+        heads[slot] = handle;
+    }
+
+    /**
+     * Moves up to {@code limit} handles whose deadline is at or before {@code nowNanos} into {@code expired}.
+     *
+     * @return the number of handles written; equal to {@code limit} if more may be due
+     */
+    public int expire(long nowNanos, int[] expired, int limit) {
+        long nowTick = (nowNanos - startNanos) / tickNanos;
+        int count = 0;
+        while (currentTick <= nowTick) {
+            int slot = (int) (currentTick & mask);
+            int previous = -1;
+            int handle = heads[slot];
+            while (handle != -1 && count < limit) {
+                int following = next[handle];
+                if (deadlines[handle] <= currentTick) {
+                    if (previous == -1) {
+                        heads[slot] = following;
+                    } else {
+                        next[previous] = following;
+                    }
+                    expired[count++] = handle;
+                } else {
+                    previous = handle;
+                }
+                handle = following;
+            }
+            if (handle != -1) {
+                return count;
+            }
+            currentTick++;
+        }
+        return count;
+    }
+
+    public long nextTickNanos() {
+        return startNanos + currentTick * tickNanos;
+    }
+}
@@ -0,0 +1,205 @@
+package com.optiva;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetSocket;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event loop transport; CER/CEA, DWR/DWA and answer dispatch all run on the socket's Vert.x event loop. Requests sent
+ * from other threads are appended to one buffer that the event loop writes and flushes on its next turn, up to
+ * {@code writeBatch} requests per write.
+ */
+public class VertxConnection implements DiameterConnection {
+    private static final Logger LOGGER = Logger.getLogger(VertxConnection.class.getSimpleName());
+    private final NetSocket socket;
+    private final Map<Integer, CompletableFuture<CreditControlAnswer>> pending = new ConcurrentHashMap<>();
+    private final CompletableFuture<DiameterConnection> ready = new CompletableFuture<>();
+    private final DiameterFrameDecoder decoder = new DiameterFrameDecoder(4096);
+    private final AnswerDecoder answers = new AnswerDecoder();
+    private final int writeBatch;
+    private final Context context;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Buffer queued;
+    private int queuedCount;
+    private volatile boolean open = true;
+
+    private VertxConnection(NetSocket socket, int writeBatch) {
+        this.socket = socket;
+        this.writeBatch = writeBatch;
+        this.context = Vertx.currentContext();
+        socket.handler(this::onData);
+        socket.exceptionHandler(e -> LOGGER.severe("Connection error | cause:" + e.getMessage()));
+        socket.closeHandler(v -> {
+            if (open) {
+                LOGGER.severe("Connection lost");
+            }
+            open = false;
+            failPending(new SocketException("Connection closed"));
+        });
+    }
+
+    /**
+     * @param timeoutMillis how long the peer has to answer the CER; the socket is closed if it does not
+     * @param writeBatch    requests coalesced into one write at most, 1 to write each request on its own
+     */
+    public static CompletableFuture<DiameterConnection> connect(NetClient client,
+                                                                String host,
+                                                                int port,
+                                                                byte[] cer,
+                                                                long timeoutMillis,
+                                                                int writeBatch) {
+        CompletableFuture<DiameterConnection> connection = new CompletableFuture<>();
+        client.connect(port, host).onComplete(ar -> {
+            if (ar.failed()) {
+                connection.completeExceptionally(ar.cause());
+                return;
+            }
+            VertxConnection vc = new VertxConnection(ar.result(), writeBatch);
+            vc.ready.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((c, e) -> {
+                if (e != null) {
+                    vc.close();
+                    connection.completeExceptionally(e);
+                } else {
+                    connection.complete(c);
+                }
+            });
+            vc.socket.write(Buffer.buffer(cer));
+        });
+        return connection;
+    }
+
+    @Override
+    public CompletableFuture<CreditControlAnswer> send(int hopByHopId, byte[] request) {
+        CompletableFuture<CreditControlAnswer> answer = new CompletableFuture<>();
+        pending.put(hopByHopId, answer);
+        if (!open) {
+            pending.remove(hopByHopId);
+            answer.completeExceptionally(new SocketException("Connection closed"));
+            return answer;
+        }
+        CaptureWriter.recordRequest(request);
+        if (writeBatch <= 1 || context == null) {
+            socket.write(Buffer.buffer(request)).onFailure(e -> {
+                pending.remove(hopByHopId);
+                answer.completeExceptionally(new SocketException(e.getMessage()));
+            });
+        } else {
+            queue(request);
+        }
+        return answer;
+    }
+
+    private void queue(byte[] request) {
+        Buffer batch = null;
+        writeLock.lock();
+        try {
+            if (queued == null || queuedCount == writeBatch) {
+                batch = queued = Buffer.buffer(request.length * Math.min(writeBatch, 16));
+                queuedCount = 0;
+            }
+            queued.appendBytes(request);
+            queuedCount++;
+        } finally {
+            writeLock.unlock();
+        }
+        if (batch != null) {
+            Buffer scheduled = batch;
+            context.runOnContext(v -> flush(scheduled));
+        }
+    }
+
+    private void flush(Buffer batch) {
+        writeLock.lock();
+        try {
+            if (queued == batch) {
+                queued = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        socket.write(batch).onFailure(e -> {
+            LOGGER.severe("Write failed | cause:" + e.getMessage());
+            close();
+        });
+    }
+
+    @Override
+    public void abandon(int hopByHopId) {
+        pending.remove(hopByHopId);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int inFlight() {
+        return pending.size();
+    }
+
+    private void onData(Buffer data) {
+        int length = data.length();
+        int writeIndex = decoder.reserve(length);
+        data.getBytes(0, length, decoder.array(), writeIndex);
+        decoder.commit(length);
+        try {
+            while (decoder.hasFrame()) {
+                onFrame();
+                decoder.skipFrame();
+            }
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.severe("Connection error | cause:" + e.getMessage());
+            close();
+        }
+    }
+
+    private void onFrame() {
+        if (decoder.isRequest()) {
+            socket.write(Buffer.buffer(decoder.answerFrame()));
+        } else if (decoder.commandCode() == DiameterFrameDecoder.CAPABILITIES_EXCHANGE) {
+            int resultCode = answers.decode(decoder.array(), decoder.frameOffset()).resultCode();
+            if (resultCode != 2001) {
+                ready.completeExceptionally(new RuntimeException("Failure: Result-Code " + resultCode));
+            } else {
+                ready.complete(this);
+            }
+        } else {
+            CaptureWriter.recordAnswer(decoder.array(), decoder.frameOffset());
+            CompletableFuture<CreditControlAnswer> answer = pending.remove(decoder.hopByHopId());
+            if (answer != null) {
+                answer.complete(answers.decode(decoder.array(), decoder.frameOffset()).toAnswer());
+            } else if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Unmatched answer | hopByHopId:" + decoder.hopByHopId());
+            }
+        }
+    }
+
+    private void failPending(Exception cause) {
+        ready.completeExceptionally(cause);
+        for (Integer hopByHopId : pending.keySet()) {
+            CompletableFuture<CreditControlAnswer> answer = pending.remove(hopByHopId);
+            if (answer != null) {
+                answer.completeExceptionally(cause);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        socket.close();
+    }
+}
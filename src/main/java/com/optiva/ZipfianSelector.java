@@ -0,0 +1,51 @@
+package com.optiva;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Zipf-distributed subscriber indexes, index 0 being the most popular, using the closed-form approximation of Gray et
+ * al. ("Quickly Generating Billion-Record Synthetic Databases"). Only the zeta constant is precomputed, once, in time
+ * linear in the range; every pick is constant time.
+ */
+public final class ZipfianSelector implements SubscriberSelector {
+    private final long count;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    /**
+     * @param theta skew in (0, 1); 0.99 is the usual "hot keys" setting
+     */
+    public ZipfianSelector(long count, double theta) {
+        if (theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("Zipf theta must be between 0 and 1: " + theta);
+        }
+        this.count = count;
+        this.theta = theta;
+        this.zetaN = zeta(count, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2.0 / count, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    }
+
+    @Override
+    public long next() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < 1 + Math.pow(0.5, theta) && count > 1) {
+            return 1;
+        }
+        return Math.min((long) (count * Math.pow(eta * u - eta + 1, alpha)), count - 1);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,78 @@
+package com.optiva;
+
+import com.optiva.charging.openapi.diameter.DiameterCommandCode;
+import com.optiva.charging.openapi.diameter.DiameterMessage;
+import com.optiva.charging.openapi.diameter.DiameterMessageHeader;
+import com.optiva.charging.openapi.diameter.avp.Avp;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.CC_TOTAL_OCTETS;
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.ERROR_MESSAGE;
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.GRANTED_SERVICE_UNIT;
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.MULTIPLE_SERVICES_CREDIT_CONTROL;
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.ORIGIN_HOST;
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.RATING_GROUP;
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.RESULT_CODE;
+import static com.optiva.charging.openapi.diameter.avp.AvpCodeTable.RFC.SESSION_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AnswerDecoderTest {
+
+    @Test
+    void readsGrantedOctetsFromGroupedServiceUnit() {
+        Avp mscc = MULTIPLE_SERVICES_CREDIT_CONTROL.createAvp(Map.of(
+                GRANTED_SERVICE_UNIT,
+                GRANTED_SERVICE_UNIT.createAvp(Map.of(CC_TOTAL_OCTETS, CC_TOTAL_OCTETS.createAvp(10_000_000L))),
+                RATING_GROUP,
+                RATING_GROUP.createAvp(7),
+                RESULT_CODE,
+                RESULT_CODE.createAvp(2001)));
+        byte[] cca = answer(SESSION_ID.createAvp("session-1"),
+                            RESULT_CODE.createAvp(2001),
+                            ORIGIN_HOST.createAvp("ocs"),
+                            mscc);
+
+        AnswerDecoder decoder = new AnswerDecoder().decode(cca, 0);
+        assertEquals(2001, decoder.resultCode());
+        assertEquals(10_000_000L, decoder.grantedOctets());
+        assertNull(decoder.errorMessage());
+    }
+
+    @Test
+    void decodesAtAnOffsetWithoutAGrant() {
+        byte[] cca = answer(SESSION_ID.createAvp("session-1"),
+                            RESULT_CODE.createAvp(4012),
+                            ERROR_MESSAGE.createAvp("Credit limit reached"));
+        byte[] buffer = new byte[cca.length + 3];
+        System.arraycopy(cca, 0, buffer, 3, cca.length);
+
+        AnswerDecoder decoder = new AnswerDecoder().decode(buffer, 3);
+        assertEquals(4012, decoder.resultCode());
+        assertEquals(-1, decoder.grantedOctets());
+        assertEquals("Credit limit reached", decoder.errorMessage());
+    }
+
+    @Test
+    void ignoresVendorSpecificAvpsWithBaseCodes() {
+        byte[] cca = answer(RESULT_CODE.createAvp(2001));
+        ByteBuffer message = ByteBuffer.allocate(cca.length + 16).put(cca);
+        // a 3GPP AVP that shares the Result-Code's number
+        message.putInt(AvpCursor.RESULT_CODE).putInt(0xC0 << 24 | 16).putInt(10415).putInt(5030);
+        message.putInt(0, 0x01 << 24 | message.position());
+
+        assertEquals(2001, new AnswerDecoder().decode(message.array(), 0).resultCode());
+    }
+
+    private static byte[] answer(Avp... avps) {
+        DiameterMessageHeader header = new DiameterMessageHeader.Builder(DiameterCommandCode.CC).setApplicationId(4)
+                .setHopByHopId(1)
+                .setEndToEndId(1)
+                .build();
+        return new DiameterMessage(header, List.of(avps)).convertToBytes(ByteBuffer.allocate(4096));
+    }
+}
@@ -0,0 +1,192 @@
+package com.optiva;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchingWriterTest {
+    private static final int SENDERS = 8;
+    private ServerSocketChannel server;
+    private SocketChannel peer;
+    private FramedSocket socket;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket = new FramedSocket(SocketChannel.open(server.getLocalAddress()));
+        peer = server.accept();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        executor.shutdownNow();
+        socket.close();
+        peer.close();
+        server.close();
+    }
+
+    @Test
+    void concurrentSendersKeepEveryMessageWhole() throws Exception {
+        int perSender = 5_000;
+        AtomicInteger failures = new AtomicInteger();
+        try (BatchingWriter writer = new BatchingWriter(socket, "test", 64, 0, failures::incrementAndGet)) {
+            Future<Long> received = executor.submit(() -> readFrames(SENDERS * perSender));
+            List<Future<?>> senders = new ArrayList<>();
+            for (int s = 0; s < SENDERS; s++) {
+                int sender = s;
+                senders.add(executor.submit(() -> {
+                    for (int i = 0; i < perSender; i++) {
+                        writer.write(frame(sender * perSender + i, 20 + (i * 37 + sender) % 2000));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> sender : senders) {
+                sender.get(30, TimeUnit.SECONDS);
+            }
+            // more than both buffers, so senders waited for swaps
+            assertTrue(received.get(30, TimeUnit.SECONDS) > 2 * 256 * 1024);
+        }
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    void writesMessagesLargerThanABufferWhole() throws Exception {
+        try (BatchingWriter writer = new BatchingWriter(socket, "test", 64, 0, () -> {
+        })) {
+            Future<Long> received = executor.submit(() -> readFrames(3 * 1_000 + 3));
+            Future<?> small = executor.submit(() -> {
+                for (int i = 0; i < 3 * 1_000; i++) {
+                    writer.write(frame(i, 200));
+                }
+                return null;
+            });
+            for (int i = 0; i < 3; i++) {
+                writer.write(frame(1_000_000 + i, 300 * 1024));
+            }
+            small.get(30, TimeUnit.SECONDS);
+            assertTrue(received.get(30, TimeUnit.SECONDS) > 900 * 1024);
+        }
+    }
+
+    @Test
+    void closeReleasesSendersOfAStalledConnection() throws Exception {
+        BatchingWriter writer = new BatchingWriter(socket, "test", 64, 0, () -> {
+        });
+        // the peer never reads, so the kernel buffers and then both batch buffers fill up
+        AtomicLong progress = new AtomicLong();
+        List<Future<?>> senders = new ArrayList<>();
+        for (int s = 0; s < 2; s++) {
+            senders.add(executor.submit(() -> {
+                while (true) {
+                    writer.write(frame(0, 1024));
+                    progress.incrementAndGet();
+                }
+            }));
+        }
+        long seen;
+        do {
+            seen = progress.get();
+            TimeUnit.MILLISECONDS.sleep(200);
+        } while (progress.get() != seen);
+
+        // as MultiplexedConnection.close does
+        writer.close();
+        socket.close();
+        for (Future<?> sender : senders) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> sender.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+        }
+        assertThrows(SocketException.class, () -> writer.write(frame(0, 100)));
+    }
+
+    @Test
+    void writesOnTheCallersThreadWithoutBatching() throws Exception {
+        try (BatchingWriter writer = new BatchingWriter(socket, "test", 1, 0, () -> {
+        })) {
+            CompletableFuture<Long> received = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return readFrames(100);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, executor);
+            for (int i = 0; i < 100; i++) {
+                writer.write(frame(i, 64));
+            }
+            assertEquals(6_400, received.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * A request of {@code length} bytes whose body repeats the low byte of its hop-by-hop id.
+     */
+    private static byte[] frame(int hopByHopId, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        frame.putInt(0x01 << 24 | length);
+        frame.putInt(0x80 << 24 | DiameterFrameDecoder.CREDIT_CONTROL);
+        frame.putInt(4);
+        frame.putInt(hopByHopId);
+        frame.putInt(hopByHopId);
+        while (frame.hasRemaining()) {
+            frame.put((byte) hopByHopId);
+        }
+        return frame.array();
+    }
+
+    /**
+     * Reads {@code count} frames from the peer and checks that each arrived whole.
+     *
+     * @return the number of bytes read
+     */
+    private long readFrames(int count) throws IOException {
+        DiameterFrameDecoder decoder = new DiameterFrameDecoder(64 * 1024);
+        InputStream in = peer.socket().getInputStream();
+        long bytes = 0;
+        while (count > 0) {
+            if (decoder.readFrom(in) < 0) {
+                throw new IOException("Closed with " + count + " frames missing");
+            }
+            while (decoder.hasFrame()) {
+                byte[] buffer = decoder.array();
+                int offset = decoder.frameOffset();
+                int length = decoder.frameLength();
+                byte expected = (byte) decoder.hopByHopId();
+                for (int i = DiameterFrameDecoder.HEADER_LENGTH; i < length; i++) {
+                    if (buffer[offset + i] != expected) {
+                        throw new IOException("Frame " + decoder.hopByHopId() + " corrupted at byte " + i);
+                    }
+                }
+                bytes += length;
+                count--;
+                decoder.skipFrame();
+            }
+        }
+        return bytes;
+    }
+}
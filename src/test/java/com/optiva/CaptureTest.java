@@ -0,0 +1,110 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CaptureTest {
+    private static final String MSISDN = "4474000000123";
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackEveryRecordAcrossRegions() throws IOException {
+        Path path = directory.resolve("capture.bin");
+        List<byte[]> messages = new ArrayList<>();
+        // regions and windows of a few records each, and one message larger than either
+        try (CaptureWriter writer = new CaptureWriter(path, 1024)) {
+            for (int i = 0; i < 200; i++) {
+                String sessionId = i == 100 ? "s".repeat(2000) : "session-" + i;
+                byte[] message = DiameterClient.encode(RequestType.CCR_U, sessionId, MSISDN, i, 1, 1_000);
+                messages.add(message);
+                writer.append(i % 2 == 0 ? CaptureWriter.OUTBOUND : CaptureWriter.INBOUND, message, 0);
+            }
+        }
+        try (CaptureReader reader = new CaptureReader(path, 1024)) {
+            long previous = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                assertTrue(reader.next(), "record " + i);
+                assertEquals(i % 2 == 0, reader.isOutbound());
+                assertTrue(reader.timestampNanos() >= previous);
+                assertArrayEquals(messages.get(i), reader.message(), "record " + i);
+                previous = reader.timestampNanos();
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void stopsAtARecordTheWriterDidNotFinish() throws IOException {
+        Path path = directory.resolve("capture.bin");
+        byte[] message = DiameterClient.encode(RequestType.CCR_I, "session-1", MSISDN, 0, 1, 0);
+        try (CaptureWriter writer = new CaptureWriter(path)) {
+            writer.append(CaptureWriter.OUTBOUND, message, 0);
+            writer.append(CaptureWriter.OUTBOUND, message, 0);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        try (CaptureReader reader = new CaptureReader(path)) {
+            assertTrue(reader.next());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void rejectsFilesThatAreNotCaptures() throws IOException {
+        Path path = Files.writeString(directory.resolve("peers.txt"), "127.0.0.1:3868");
+        assertThrows(IOException.class, () -> new CaptureReader(path));
+        assertThrows(IOException.class, () -> new CaptureReader(directory.resolve("missing.bin")));
+    }
+
+    @Test
+    void rewritesSessionIdsInPlaceAndKeepsThemPerSession() {
+        CaptureReplayer replayer = new CaptureReplayer(null, new LoadMetrics(), directory, 0, 1);
+        String sessionId = "client;1700000000;0000000000000042";
+        byte[] initial = DiameterClient.encode(RequestType.CCR_I, sessionId, MSISDN, 0, 1, 0);
+        byte[] update = DiameterClient.encode(RequestType.CCR_U, sessionId, MSISDN, 1, 1, 1_000);
+        byte[] termination = DiameterClient.encode(RequestType.CCR_T, sessionId, MSISDN, 2, 1, 1_000);
+        byte[] original = initial.clone();
+
+        assertEquals(RequestType.CCR_I, replayer.rewrite(initial));
+        assertEquals(RequestType.CCR_U, replayer.rewrite(update));
+        assertEquals(RequestType.CCR_T, replayer.rewrite(termination));
+
+        String replayed = sessionId(initial);
+        assertEquals(sessionId.length(), replayed.length());
+        assertNotEquals(sessionId, replayed);
+        assertEquals(sessionId.substring(0, sessionId.length() - 16), replayed.substring(0, replayed.length() - 16));
+        assertEquals(replayed, sessionId(update));
+        assertEquals(replayed, sessionId(termination));
+        assertEquals(original.length, initial.length);
+        assertTrue(Arrays.equals(original, 0, 16, initial, 0, 16), "header before the end-to-end id changed");
+
+        byte[] next = DiameterClient.encode(RequestType.CCR_I, sessionId, MSISDN, 0, 1, 0);
+        replayer.rewrite(next);
+        assertNotEquals(replayed, sessionId(next), "a new session after CCR-T must get a new Session-Id");
+    }
+
+    private static String sessionId(byte[] message) {
+        AvpCursor avps = new AvpCursor().wrapMessage(message, 0);
+        assertTrue(avps.find(AvpCursor.SESSION_ID));
+        return new String(message, avps.dataOffset(), avps.dataLength(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,81 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CcrTemplateTest {
+    private static final String SESSION_ID = "client;1700000000;42";
+    private static final String MSISDN = "4474000000123";
+
+    @Test
+    void renderMatchesEncodeForEveryRequestType() {
+        for (RequestType type : RequestType.values()) {
+            byte[] expected = DiameterClient.encode(type, SESSION_ID, MSISDN, 3, 7, 123_456);
+            byte[] actual = CcrTemplate.of(type, SESSION_ID.length(), MSISDN.length())
+                    .render(AvpCursor.readInt(expected, 12),
+                            AvpCursor.readInt(expected, 16),
+                            SESSION_ID,
+                            MSISDN,
+                            3,
+                            7,
+                            123_456);
+            copyEventTimestamp(actual, expected);
+            assertArrayEquals(expected, actual, type.name());
+        }
+    }
+
+    @Test
+    void renderOverwritesThePreviousRender() {
+        CcrTemplate template = CcrTemplate.of(RequestType.CCR_U, SESSION_ID.length(), MSISDN.length());
+        template.render(-1, -1, "x".repeat(SESSION_ID.length()), "9".repeat(MSISDN.length()), 99, 99, 999_999);
+        byte[] expected = DiameterClient.encode(RequestType.CCR_U, SESSION_ID, MSISDN, 1, 2, 1_000);
+        byte[] actual = template.render(AvpCursor.readInt(expected, 12),
+                                        AvpCursor.readInt(expected, 16),
+                                        SESSION_ID,
+                                        MSISDN,
+                                        1,
+                                        2,
+                                        1_000);
+        copyEventTimestamp(actual, expected);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void numericRenderMatchesStringRender() {
+        long sessionKey = 1_700_000_000_000_000_042L;
+        long msisdn = 4474000000123L;
+        String sessionId = CcrTemplate.SESSION_PREFIX + String.format("%019d", sessionKey);
+        byte[] expected = DiameterClient.encode(RequestType.CCR_U, sessionId, Long.toString(msisdn), 1, 2, 1_000);
+        byte[] actual = CcrTemplate.of(RequestType.CCR_U,
+                                       CcrTemplate.SESSION_KEY_LENGTH,
+                                       CcrTemplate.decimalLength(msisdn))
+                .render(AvpCursor.readInt(expected, 12),
+                        AvpCursor.readInt(expected, 16),
+                        sessionKey,
+                        msisdn,
+                        1,
+                        2,
+                        1_000);
+        copyEventTimestamp(actual, expected);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void numericRenderRejectsValuesThatDoNotFit() {
+        CcrTemplate template = CcrTemplate.of(RequestType.CCR_I, CcrTemplate.SESSION_KEY_LENGTH, 4);
+        assertThrows(IllegalArgumentException.class, () -> template.render(1, 1, -1, 1234, 0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> template.render(1, 1, 1, 12345, 0, 0, 0));
+    }
+
+    /**
+     * The template stamps the current time where {@link DiameterClient#encode} uses the time its class was loaded.
+     */
+    private static void copyEventTimestamp(byte[] from, byte[] to) {
+        AvpCursor avps = new AvpCursor().wrapMessage(from, 0);
+        assertTrue(avps.find(AvpCursor.EVENT_TIMESTAMP));
+        System.arraycopy(from, avps.dataOffset(), to, avps.dataOffset(), avps.dataLength());
+    }
+}
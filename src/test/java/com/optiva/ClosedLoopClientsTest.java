@@ -0,0 +1,85 @@
+package com.optiva;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClosedLoopClientsTest {
+    private final ScheduledThreadPoolExecutor service = new ScheduledThreadPoolExecutor(1);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdownNow();
+    }
+
+    @Test
+    void followsRaisedAndLoweredRates() {
+        // each client sends a message every 100 ms, so 10 TPS per client
+        LoadControl control = new LoadControl(20, 3, 100);
+        List<Integer> grown = new ArrayList<>();
+        ClosedLoopClients clients = new ClosedLoopClients(service, control, () -> () -> {
+        }, grown::add);
+        clients.resize();
+        assertEquals(2, clients.size());
+
+        control.rate(95, 0);
+        clients.resize();
+        assertEquals(10, clients.size());
+        assertTrue(service.getCorePoolSize() > 10, "pool of " + service.getCorePoolSize() + " threads");
+
+        control.rate(10, 0);
+        clients.resize();
+        assertEquals(1, clients.size());
+        control.rate(30, 0);
+        clients.resize();
+        assertEquals(3, clients.size());
+        assertEquals(List.of(2, 10, 3), grown);
+
+        control.callSleep(1000);
+        clients.resize();
+        assertEquals(30, clients.size());
+
+        clients.stop();
+        assertEquals(0, clients.size());
+        clients.resize();
+        assertEquals(0, clients.size());
+    }
+
+    @Test
+    void runsClientsUntilStopped() throws InterruptedException {
+        LoadControl control = new LoadControl(30, 3, 100);
+        AtomicInteger sessions = new AtomicInteger();
+        ClosedLoopClients clients = new ClosedLoopClients(service, control, () -> sessions::incrementAndGet, n -> {
+        });
+        clients.resize();
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertEquals(3, sessions.get());
+        clients.stop();
+        TimeUnit.MILLISECONDS.sleep(1_100);
+        assertEquals(3, sessions.get());
+    }
+
+    @Test
+    void admitsInProportionBelowCapacityAndNothingWhilePaused() {
+        LoadControl control = new LoadControl(25, 3, 100);
+        int admitted = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (control.admit(100)) {
+                admitted++;
+            }
+        }
+        assertTrue(admitted > 24_000 && admitted < 26_000, admitted + " of 100000 admitted");
+        assertTrue(control.admit(25));
+        control.pause();
+        assertFalse(control.admit(25));
+    }
+}
@@ -0,0 +1,100 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiameterFrameDecoderTest {
+
+    @Test
+    void assemblesFramesSplitAcrossReads() throws IOException {
+        byte[][] frames = frames();
+        DiameterFrameDecoder decoder = new DiameterFrameDecoder(32);
+        InputStream in = new OneByteInputStream(concat(frames));
+        int next = 0;
+        while (decoder.readFrom(in) >= 0) {
+            while (decoder.hasFrame()) {
+                assertFrame(frames[next++], decoder);
+                decoder.skipFrame();
+            }
+        }
+        assertEquals(frames.length, next);
+    }
+
+    @Test
+    void splitsFramesCoalescedInOneRead() throws IOException {
+        byte[][] frames = frames();
+        byte[] stream = concat(frames);
+        DiameterFrameDecoder decoder = new DiameterFrameDecoder(stream.length + 512);
+        assertEquals(stream.length, decoder.readFrom(new ByteArrayInputStream(stream)));
+        for (byte[] frame : frames) {
+            assertTrue(decoder.hasFrame());
+            assertFrame(frame, decoder);
+            decoder.skipFrame();
+        }
+        assertFalse(decoder.hasFrame());
+    }
+
+    @Test
+    void rejectsLengthShorterThanHeader() throws IOException {
+        byte[] frame = frames()[0];
+        frame[1] = frame[2] = 0;
+        frame[3] = 8;
+        DiameterFrameDecoder decoder = new DiameterFrameDecoder(64);
+        decoder.readFrom(new ByteArrayInputStream(frame));
+        assertThrows(IOException.class, decoder::hasFrame);
+    }
+
+    private static void assertFrame(byte[] expected, DiameterFrameDecoder decoder) {
+        assertTrue(decoder.isRequest());
+        assertEquals(DiameterFrameDecoder.CREDIT_CONTROL, decoder.commandCode());
+        assertEquals(AvpCursor.readInt(expected, 12), decoder.hopByHopId());
+        int offset = decoder.frameOffset();
+        assertArrayEquals(expected, Arrays.copyOfRange(decoder.array(), offset, offset + decoder.frameLength()));
+    }
+
+    private static byte[][] frames() {
+        byte[][] frames = new byte[RequestType.values().length][];
+        for (RequestType type : RequestType.values()) {
+            frames[type.ordinal()] = DiameterClient.encode(type,
+                                                           "session-" + type,
+                                                           "4474000000123",
+                                                           type.ordinal(),
+                                                           1,
+                                                           100);
+        }
+        return frames;
+    }
+
+    private static byte[] concat(byte[][] frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            out.writeBytes(frame);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Hands out one byte per read, as a slow or fragmenting network would.
+     */
+    private static class OneByteInputStream extends ByteArrayInputStream {
+        OneByteInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
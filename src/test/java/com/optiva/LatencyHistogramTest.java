@@ -0,0 +1,93 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+    private static final long MAX_VALUE = TimeUnit.HOURS.toMicros(1);
+
+    @Test
+    void keepsSmallValuesExact() {
+        for (long value = 0; value < 64; value++) {
+            assertEquals(value, LatencyHistogram.index(value));
+            assertEquals(value, LatencyHistogram.lowerBound((int) value));
+        }
+    }
+
+    @Test
+    void bucketsContainTheirValuesAtPowerOfTwoEdges() {
+        for (int shift = 6; shift < 63 && 1L << shift <= MAX_VALUE; shift++) {
+            long edge = 1L << shift;
+            for (long value : new long[]{edge - 1, edge, edge + 1, edge + edge / 2}) {
+                assertBucketContains(value);
+            }
+            assertEquals(LatencyHistogram.index(edge - 1) + 1, LatencyHistogram.index(edge), "edge " + edge);
+        }
+        assertBucketContains(MAX_VALUE);
+    }
+
+    @Test
+    void lowerBoundIsTheFirstValueOfItsBucket() {
+        for (int index = 0; index <= LatencyHistogram.index(MAX_VALUE); index++) {
+            long lowerBound = LatencyHistogram.lowerBound(index);
+            assertEquals(index, LatencyHistogram.index(lowerBound), "index " + index);
+            if (lowerBound > 0) {
+                assertEquals(index - 1, LatencyHistogram.index(lowerBound - 1), "index " + index);
+            }
+        }
+    }
+
+    @Test
+    void percentilesStayWithinOneSubBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int samples = 100_000;
+        for (int value = 1; value <= samples; value++) {
+            histogram.record(value);
+        }
+        assertEquals(samples, histogram.count());
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long exact = (long) Math.ceil(percentile / 100 * samples);
+            long reported = histogram.percentile(percentile);
+            assertTrue(reported >= exact && reported <= exact + exact / 32,
+                       "p" + percentile + " reported " + reported + ", exact " + exact);
+        }
+        assertEquals(histogram.percentile(100), histogram.max());
+    }
+
+    @Test
+    void clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.max());
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.lowerBound(LatencyHistogram.index(MAX_VALUE) + 1) - 1, histogram.max());
+        assertEquals(0, new LatencyHistogram().percentile(99));
+    }
+
+    @Test
+    void drainsWithoutLosingCounts() {
+        LatencyHistogram source = new LatencyHistogram();
+        for (int value = 0; value < 10_000; value += 7) {
+            source.record(value);
+        }
+        long p50 = source.percentile(50);
+        LatencyHistogram drained = new LatencyHistogram();
+        source.drainInto(drained);
+        assertEquals(0, source.count());
+        assertEquals(1429, drained.count());
+        assertEquals(p50, drained.percentile(50));
+    }
+
+    private static void assertBucketContains(long value) {
+        int index = LatencyHistogram.index(value);
+        assertTrue(LatencyHistogram.lowerBound(index) <= value && value < LatencyHistogram.lowerBound(index + 1),
+                   value + " outside bucket " + index);
+        assertTrue(LatencyHistogram.lowerBound(index + 1) - LatencyHistogram.lowerBound(index)
+                   <= Math.max(1, LatencyHistogram.lowerBound(index) / 32),
+                   "bucket " + index + " wider than 1/32 of its lower bound");
+    }
+}
@@ -0,0 +1,114 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LoadCoordinatorTest {
+
+    @Test
+    void mergesWorkerSnapshotsSentOverTheWire() throws IOException {
+        LoadMetrics first = new LoadMetrics();
+        LoadMetrics second = new LoadMetrics();
+        LoadMetrics merged = new LoadMetrics();
+        MetricsSnapshot[] previous = new MetricsSnapshot[2];
+
+        record(first, 100, 1);
+        record(second, 50, 4);
+        previous[0] = transfer(first.snapshot(), null, merged);
+        previous[1] = transfer(second.snapshot(), null, merged);
+        record(first, 30, 2);
+        first.requestSent(RequestType.CCR_T);
+        first.requestTimedOut(RequestType.CCR_T);
+        second.requestSent(RequestType.CCR_I);
+        second.requestFailed(RequestType.CCR_I);
+        second.reconnected();
+        transfer(first.snapshot(), previous[0], merged);
+        transfer(second.snapshot(), previous[1], merged);
+
+        MetricsSnapshot snapshot = merged.snapshot();
+        assertEquals(182, snapshot.sent());
+        assertEquals(180, snapshot.answered());
+        assertEquals(1, snapshot.timeouts());
+        assertEquals(1, snapshot.failures());
+        assertEquals(1, snapshot.reconnects());
+        assertEquals(0, snapshot.inFlight());
+        assertEquals(Map.of(2001, 162L, 4012, 18L), snapshot.resultCodes());
+
+        LatencyHistogram expected = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            expected.record(1_000);
+        }
+        for (int i = 0; i < 50; i++) {
+            expected.record(4_000);
+        }
+        for (int i = 0; i < 30; i++) {
+            expected.record(2_000);
+        }
+        LatencyHistogram latency = snapshot.commands().get(RequestType.CCR_U.ordinal()).total();
+        assertEquals(expected.count(), latency.count());
+        for (double percentile : new double[]{50, 60, 90, 100}) {
+            assertEquals(expected.percentile(percentile), latency.percentile(percentile), "p" + percentile);
+        }
+    }
+
+    @Test
+    void keepsEveryFieldThroughTheWire() throws IOException {
+        LoadMetrics metrics = new LoadMetrics();
+        record(metrics, 10, 3);
+        metrics.requestSent(RequestType.CCR_I);
+        MetricsSnapshot sent = metrics.snapshot();
+        MetricsSnapshot received = roundTrip(sent);
+
+        assertEquals(sent.timestamp(), received.timestamp());
+        assertEquals(sent.elapsedMillis(), received.elapsedMillis());
+        assertEquals(sent.intervalMillis(), received.intervalMillis());
+        assertEquals(sent.resultCodes(), received.resultCodes());
+        assertEquals(sent.reconnects(), received.reconnects());
+        assertEquals(1, received.inFlight());
+        for (RequestType type : RequestType.values()) {
+            MetricsSnapshot.CommandStats expected = sent.commands().get(type.ordinal());
+            MetricsSnapshot.CommandStats actual = received.commands().get(type.ordinal());
+            assertEquals(type, actual.type());
+            assertEquals(expected.sent(), actual.sent());
+            assertEquals(expected.answered(), actual.answered());
+            assertEquals(expected.intervalAnswered(), actual.intervalAnswered());
+            assertEquals(expected.interval().count(), actual.interval().count());
+            assertEquals(expected.interval().percentile(99), actual.interval().percentile(99));
+        }
+    }
+
+    /**
+     * Records {@code count} answered CCR-Us of {@code millis} each, one in ten rejected with 4012.
+     */
+    private static void record(LoadMetrics metrics, int count, int millis) {
+        for (int i = 0; i < count; i++) {
+            metrics.requestSent(RequestType.CCR_U);
+            metrics.answerReceived(RequestType.CCR_U, i % 10 == 0 ? 4012 : 2001, TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    private static MetricsSnapshot transfer(MetricsSnapshot snapshot, MetricsSnapshot previous, LoadMetrics merged)
+            throws IOException {
+        MetricsSnapshot received = roundTrip(snapshot);
+        merged.merge(previous, received);
+        return received;
+    }
+
+    private static MetricsSnapshot roundTrip(MetricsSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LoadCoordinator.writeSnapshot(new DataOutputStream(bytes), snapshot);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        MetricsSnapshot received = LoadCoordinator.readSnapshot(in);
+        assertEquals(-1, in.read(), "bytes left after the snapshot");
+        return received;
+    }
+}
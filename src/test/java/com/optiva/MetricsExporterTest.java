@@ -0,0 +1,161 @@
+package com.optiva;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsExporterTest {
+    private static final int THREADS = 8;
+    private static final int ANSWERS = 10_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void mergesStripesRecordedByManyThreads() throws Exception {
+        LoadMetrics metrics = new LoadMetrics();
+        record(metrics);
+        MetricsSnapshot snapshot = metrics.snapshot();
+        MetricsSnapshot.CommandStats updates = snapshot.commands().get(RequestType.CCR_U.ordinal());
+        assertEquals(THREADS * ANSWERS, updates.sent());
+        assertEquals(THREADS * ANSWERS, updates.answered());
+        assertEquals(THREADS * ANSWERS, updates.interval().count());
+        assertEquals(THREADS * ANSWERS, updates.total().count());
+        assertEquals(0, snapshot.inFlight());
+        assertEquals(Map.of(2001, (long) THREADS * ANSWERS * 3 / 4, 4012, (long) THREADS * ANSWERS / 4),
+                     snapshot.resultCodes());
+
+        MetricsSnapshot next = metrics.snapshot();
+        updates = next.commands().get(RequestType.CCR_U.ordinal());
+        assertEquals(0, updates.intervalAnswered());
+        assertEquals(0, updates.interval().count());
+        assertEquals(THREADS * ANSWERS, updates.total().count());
+        assertEquals(0L, next.intervalResultCodes().get(2001));
+    }
+
+    @Test
+    void exportsCsvJsonLinesAndPrometheusNames() throws Exception {
+        LoadMetrics metrics = new LoadMetrics();
+        record(metrics);
+        metrics.requestSent(RequestType.CCR_T);
+        metrics.requestTimedOut(RequestType.CCR_T);
+        metrics.reconnected();
+        String prefix = directory.resolve("run").toString();
+        MetricsSnapshot snapshot;
+        try (MetricsExporter exporter = new MetricsExporter(prefix)) {
+            exporter.export(metrics.snapshot());
+            snapshot = metrics.snapshot();
+            exporter.export(snapshot);
+        }
+
+        List<String> latency = Files.readAllLines(Path.of(prefix + "-latency.csv"));
+        assertEquals("timestamp,elapsed_ms,command,sent,answered,timeouts,failures,interval_answered,"
+                     + "p50_us,p90_us,p99_us,p999_us,max_us", latency.get(0));
+        assertEquals(1 + 2 * RequestType.values().length, latency.size());
+        String[] row = latency.get(1 + RequestType.CCR_U.ordinal()).split(",");
+        assertEquals(13, row.length);
+        assertEquals("CCR-u", row[2]);
+        assertEquals(String.valueOf(THREADS * ANSWERS), row[4]);
+        assertEquals(String.valueOf(THREADS * ANSWERS), row[7]);
+        assertEquals("1", latency.get(1 + RequestType.values().length + RequestType.CCR_T.ordinal()).split(",")[5]);
+
+        List<String> results = Files.readAllLines(Path.of(prefix + "-results.csv"));
+        assertEquals("timestamp,elapsed_ms,result_code,count,interval_count", results.get(0));
+        // the second export's rows, without their timestamp and elapsed_ms
+        assertEquals(List.of("2001," + THREADS * ANSWERS * 3 / 4 + ",0", "4012," + THREADS * ANSWERS / 4 + ",0"),
+                     results.subList(3, 5).stream().map(r -> r.substring(r.indexOf(',', r.indexOf(',') + 1) + 1))
+                             .toList());
+
+        List<String> lines = Files.readAllLines(Path.of(prefix + ".jsonl"));
+        assertEquals(2, lines.size());
+        JsonObject json = new JsonObject(lines.get(1));
+        assertEquals(Set.of("timestamp", "elapsedMillis", "tps", "inFlight", "reconnects", "resultCodes", "commands"),
+                     json.fieldNames());
+        assertEquals(1, json.getLong("reconnects"));
+        assertEquals(THREADS * ANSWERS / 4, json.getJsonObject("resultCodes").getLong("4012"));
+        JsonArray commands = json.getJsonArray("commands");
+        assertEquals(RequestType.values().length, commands.size());
+        JsonObject command = commands.getJsonObject(RequestType.CCR_U.ordinal());
+        assertEquals(Set.of("command", "sent", "answered", "timeouts", "failures", "intervalAnswered",
+                            "intervalLatencyMicros", "totalLatencyMicros"), command.fieldNames());
+        assertEquals("CCR-u", command.getString("command"));
+        JsonObject total = command.getJsonObject("totalLatencyMicros");
+        assertEquals(Set.of("count", "p50", "p90", "p99", "p999", "max"), total.fieldNames());
+        assertEquals(THREADS * ANSWERS, total.getLong("count"));
+        assertEquals(snapshot.commands().get(RequestType.CCR_U.ordinal()).total().percentile(99),
+                     total.getLong("p99"));
+
+        Map<String, String> samples = new HashMap<>();
+        List<String> types = new ArrayList<>();
+        for (String line : MetricsExporter.prometheus(snapshot).split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                types.add(line.substring("# TYPE ".length()));
+            } else {
+                int space = line.lastIndexOf(' ');
+                samples.put(line.substring(0, space), line.substring(space + 1));
+            }
+        }
+        assertEquals(List.of("diameter_requests_total counter",
+                             "diameter_answers_total counter",
+                             "diameter_timeouts_total counter",
+                             "diameter_failures_total counter",
+                             "diameter_result_codes_total counter",
+                             "diameter_reconnects_total counter",
+                             "diameter_in_flight gauge",
+                             "diameter_latency_seconds summary"), types);
+        assertEquals(String.valueOf(THREADS * ANSWERS), samples.get("diameter_answers_total{command=\"CCR-u\"}"));
+        assertEquals("1", samples.get("diameter_timeouts_total{command=\"CCR-t\"}"));
+        assertEquals(String.valueOf(THREADS * ANSWERS / 4), samples.get("diameter_result_codes_total{code=\"4012\"}"));
+        assertEquals("1", samples.get("diameter_reconnects_total"));
+        assertEquals("0", samples.get("diameter_in_flight"));
+        assertEquals(String.valueOf(THREADS * ANSWERS),
+                     samples.get("diameter_latency_seconds_count{command=\"CCR-u\"}"));
+        for (String quantile : new String[]{"0.5", "0.9", "0.99", "0.999"}) {
+            double seconds = Double.parseDouble(samples.get("diameter_latency_seconds{command=\"CCR-u\",quantile=\""
+                                                            + quantile + "\"}"));
+            // recorded 1-2 ms, reported at most one sub-bucket (1/32) high
+            assertTrue(seconds >= 0.001 && seconds < 0.002 * 33 / 32, "quantile " + quantile + ": " + seconds + "s");
+        }
+    }
+
+    /**
+     * Answers {@link #ANSWERS} CCR-Us of 1 to 2 ms on each of {@link #THREADS} threads, one in four rejected with 4012.
+     */
+    private static void record(LoadMetrics metrics) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                threads.add(executor.submit(() -> {
+                    for (int i = 0; i < ANSWERS; i++) {
+                        metrics.requestSent(RequestType.CCR_U);
+                        metrics.answerReceived(RequestType.CCR_U,
+                                               i % 4 == 0 ? 4012 : 2001,
+                                               TimeUnit.MICROSECONDS.toNanos(1_000 + i % 1_000));
+                    }
+                }));
+            }
+            for (Future<?> thread : threads) {
+                thread.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionTableTest {
+
+    @Test
+    void opensUntilFullAndReusesClosedHandles() {
+        SessionTable table = new SessionTable(2);
+        int first = table.open(1, 4474000000001L, 10, 2);
+        int second = table.open(2, 4474000000002L, 10, 2);
+        assertEquals(-1, table.open(3, 4474000000003L, 10, 2));
+        assertEquals(2, table.size());
+
+        table.close(first);
+        assertFalse(table.isOpen(first, 1));
+        int third = table.open(3, 4474000000003L, 20, 1);
+        assertEquals(first, third);
+        assertTrue(table.isOpen(third, 3));
+        assertFalse(table.isOpen(third, 1));
+        assertTrue(table.isOpen(second, 2));
+        assertEquals(table.capacity(), table.size());
+    }
+
+    @Test
+    void resetsEveryFieldOnReuse() {
+        SessionTable table = new SessionTable(1);
+        int handle = table.open(1, 4474000000001L, 10, 3);
+        table.granted(handle, 1_000);
+        table.use(handle, 400);
+        table.due(handle, 123);
+        table.nextRequestNumber(handle);
+        table.takeUpdate(handle);
+        table.close(handle);
+
+        handle = table.open(2, 4474000000002L, 20, 1);
+        assertEquals(2, table.key(handle));
+        assertEquals(4474000000002L, table.msisdn(handle));
+        assertEquals(20, table.ratingGroup(handle));
+        assertEquals(0, table.granted(handle));
+        assertEquals(0, table.used(handle));
+        assertEquals(0, table.due(handle));
+        assertEquals(0, table.nextRequestNumber(handle));
+        assertEquals(1, table.takeUpdate(handle));
+    }
+
+    @Test
+    void countsRequestNumbersAndUpdates() {
+        SessionTable table = new SessionTable(1);
+        int handle = table.open(1, 4474000000001L, 10, 2);
+        table.use(handle, 100);
+        table.use(handle, 50);
+        assertEquals(150, table.used(handle));
+        assertEquals(0, table.nextRequestNumber(handle));
+        assertEquals(1, table.nextRequestNumber(handle));
+        assertEquals(2, table.takeUpdate(handle));
+        assertEquals(1, table.takeUpdate(handle));
+        assertEquals(0, table.takeUpdate(handle));
+        assertEquals(0, table.takeUpdate(handle));
+    }
+}
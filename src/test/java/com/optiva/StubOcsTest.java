@@ -0,0 +1,162 @@
+package com.optiva;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StubOcsTest {
+    private static final String MSISDN = "4474000000123";
+    private static final int REQUESTS = 50_000;
+    private static final int IN_FLIGHT = 64;
+    /**
+     * Floors far below what loopback reaches on a laptop, so only a real regression in the send path, the reader
+     * thread or the stub trips them.
+     */
+    private static final long MIN_TPS = Long.getLong("diameter.test.minTps", 5_000);
+    private static final long MAX_P99_MICROS = Long.getLong("diameter.test.maxP99Micros", 50_000);
+    private StubOcs stub;
+    private FramedSocket socket;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubOcs(0, 0, "2001", 0, 5_000_000);
+        // fails unless the stub answers the CER with 2001
+        socket = DiameterLoadRunner.openSocket(new Peer("127.0.0.1", stub.port(), 1));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        socket.close();
+        stub.close();
+    }
+
+    @Test
+    void grantsOnInitialAndUpdateButNotOnTermination() throws IOException {
+        assertAnswer(RequestType.CCR_I, 5_000_000);
+        assertAnswer(RequestType.CCR_U, 5_000_000);
+        assertAnswer(RequestType.CCR_T, -1);
+    }
+
+    @Test
+    void answersSessionIdFirstWhereverTheRequestPutsIt() throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(256);
+        header(request, DiameterFrameDecoder.CREDIT_CONTROL);
+        putAvp(request, 416, new byte[]{0, 0, 0, 2});
+        putAvp(request, AvpCursor.SESSION_ID, "late;session".getBytes(StandardCharsets.US_ASCII));
+        AvpCursor avps = answer(request);
+        assertTrue(avps.next());
+        assertEquals(AvpCursor.SESSION_ID, avps.code());
+        assertEquals("late;session", avps.stringValue());
+        assertTrue(avps.find(AvpCursor.RESULT_CODE));
+        assertEquals(2001, avps.intValue());
+    }
+
+    @Test
+    void answersCapabilitiesWithEveryMandatoryAvp() throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(256);
+        header(request, DiameterFrameDecoder.CAPABILITIES_EXCHANGE);
+        AvpCursor avps = answer(request);
+        // Result-Code, Origin-Host, Origin-Realm, Host-IP-Address, Vendor-Id, Product-Name
+        for (int code : new int[]{AvpCursor.RESULT_CODE, 264, 296, 257, 266, 269}) {
+            assertTrue(avps.find(code), "AVP " + code + " missing or out of order");
+        }
+        assertEquals("stub-ocs", avps.stringValue());
+    }
+
+    @Test
+    void multiplexedClientKeepsThroughputAndLatency() throws IOException {
+        Peer peer = new Peer("127.0.0.1", stub.port(), 1);
+        CcrTemplate template = CcrTemplate.of(RequestType.CCR_U, CcrTemplate.SESSION_KEY_LENGTH, MSISDN.length());
+        LatencyHistogram latency = new LatencyHistogram();
+        CompletableFuture<?>[] answers = new CompletableFuture<?>[IN_FLIGHT];
+        try (MultiplexedConnection connection = new MultiplexedConnection(DiameterLoadRunner.openSocket(peer),
+                                                                          "test",
+                                                                          1,
+                                                                          0)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                int slot = i % IN_FLIGHT;
+                if (answers[slot] != null) {
+                    answers[slot].join();
+                }
+                int hopByHopId = DiameterIds.nextHopByHopId();
+                long sent = System.nanoTime();
+                answers[slot] = connection.send(hopByHopId,
+                                                template.render(hopByHopId,
+                                                                DiameterIds.nextEndToEndId(),
+                                                                i,
+                                                                Long.parseLong(MSISDN),
+                                                                1,
+                                                                1,
+                                                                1_000))
+                        .thenAccept(answer -> {
+                            assertEquals(2001, answer.resultCode());
+                            latency.recordNanos(System.nanoTime() - sent);
+                        });
+            }
+            CompletableFuture.allOf(answers).join();
+            long elapsed = System.nanoTime() - start;
+            long tps = REQUESTS * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            assertEquals(REQUESTS, latency.count());
+            assertTrue(tps >= MIN_TPS, "throughput " + tps + " TPS below " + MIN_TPS);
+            assertTrue(latency.percentile(99) <= MAX_P99_MICROS,
+                       "p99 " + latency.percentile(99) + "us above " + MAX_P99_MICROS + "us");
+        }
+    }
+
+    private void assertAnswer(RequestType type, long grantedOctets) throws IOException {
+        int hopByHopId = 0x1000 + type.ordinal();
+        String sessionId = "session-" + hopByHopId;
+        socket.write(CcrTemplate.of(type, sessionId.length(), MSISDN.length())
+                             .render(hopByHopId, hopByHopId, sessionId, MSISDN, type.ordinal(), 1, 1_000));
+        DiameterFrameDecoder cca = socket.awaitFrame();
+        assertFalse(cca.isRequest());
+        assertEquals(DiameterFrameDecoder.CREDIT_CONTROL, cca.commandCode());
+        assertEquals(hopByHopId, cca.hopByHopId());
+        AvpCursor first = new AvpCursor().wrapMessage(cca.array(), cca.frameOffset());
+        assertTrue(first.next());
+        assertEquals(AvpCursor.SESSION_ID, first.code());
+        assertEquals(sessionId, first.stringValue());
+        AnswerDecoder answer = new AnswerDecoder().decode(cca.array(), cca.frameOffset());
+        assertEquals(2001, answer.resultCode());
+        assertEquals(grantedOctets, answer.grantedOctets());
+        cca.skipFrame();
+    }
+
+    private AvpCursor answer(ByteBuffer request) throws IOException {
+        request.putInt(0, 0x01 << 24 | request.position());
+        ByteBuffer answer = ByteBuffer.allocate(1024);
+        stub.encodeAnswer(request.array(), 0, new AvpCursor(), new AvpCursor(), answer);
+        byte[] bytes = answer.array();
+        assertEquals(answer.position(), DiameterFrameDecoder.messageLength(bytes, 0));
+        assertEquals(0, bytes[4] & 0x80, "answer has the R bit set");
+        return new AvpCursor().wrapMessage(bytes, 0);
+    }
+
+    private static void header(ByteBuffer request, int commandCode) {
+        request.putInt(0);
+        request.putInt(0x80 << 24 | commandCode);
+        request.putInt(4);
+        request.putInt(1);
+        request.putInt(1);
+    }
+
+    private static void putAvp(ByteBuffer request, int code, byte[] value) {
+        request.putInt(code);
+        request.putInt(0x40 << 24 | 8 + value.length);
+        request.put(value);
+        while ((request.position() & 3) != 0) {
+            request.put((byte) 0);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SubscriberKeyspaceTest {
+    private static final long RANGE_START = 4474000000000L;
+
+    @Test
+    void saturatesAt255WithoutTouchingNeighbours() {
+        AtomicLong pick = new AtomicLong();
+        SubscriberKeyspace keyspace = new SubscriberKeyspace(RANGE_START, 16, pick::get, 255);
+        // index 7 is the top byte of its word, index 8 the bottom byte of the next one
+        for (long index : new long[]{0, 7}) {
+            pick.set(index);
+            for (int i = 0; i < 255; i++) {
+                assertEquals(RANGE_START + index + 1, keyspace.acquire(), "index " + index + ", session " + i);
+            }
+            assertEquals(-1, keyspace.acquire());
+        }
+        for (long index : new long[]{1, 6, 8}) {
+            assertFree(keyspace, pick, index, 255);
+        }
+
+        pick.set(7);
+        keyspace.release(RANGE_START + 8);
+        assertEquals(RANGE_START + 8, keyspace.acquire());
+        assertEquals(-1, keyspace.acquire());
+    }
+
+    @Test
+    void rejectsLimitsThatDoNotFitInAByte() {
+        assertThrows(IllegalArgumentException.class, () -> new SubscriberKeyspace(RANGE_START, 16, () -> 0, 256));
+    }
+
+    @Test
+    void ignoresReleasesWithoutLimitOrSubscriber() {
+        AtomicLong pick = new AtomicLong(3);
+        SubscriberKeyspace unlimited = new SubscriberKeyspace(RANGE_START, 16, pick::get, 0);
+        assertEquals(RANGE_START + 4, unlimited.acquire());
+        unlimited.release(RANGE_START + 4);
+
+        SubscriberKeyspace limited = new SubscriberKeyspace(RANGE_START, 16, pick::get, 1);
+        assertEquals(RANGE_START + 4, limited.acquire());
+        limited.release(-1);
+        assertEquals(-1, limited.acquire());
+    }
+
+    @Test
+    void neverExceedsTheLimitUnderContention() throws Exception {
+        int count = 16;
+        int limit = 3;
+        // random picks until the threads are done, then fixed ones to check every count went back to 0
+        AtomicLong pick = new AtomicLong(-1);
+        SubscriberKeyspace keyspace = new SubscriberKeyspace(RANGE_START,
+                                                             count,
+                                                             () -> pick.get() < 0
+                                                                   ? ThreadLocalRandom.current().nextLong(count)
+                                                                   : pick.get(),
+                                                             limit);
+        AtomicIntegerArray holders = new AtomicIntegerArray(count);
+        AtomicIntegerArray peak = new AtomicIntegerArray(count);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                threads.add(executor.submit(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        long msisdn = keyspace.acquire();
+                        if (msisdn < 0) {
+                            continue;
+                        }
+                        int index = (int) (msisdn - RANGE_START - 1);
+                        peak.accumulateAndGet(index, holders.incrementAndGet(index), Math::max);
+                        holders.decrementAndGet(index);
+                        keyspace.release(msisdn);
+                    }
+                }));
+            }
+            for (Future<?> thread : threads) {
+                thread.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int index = 0; index < count; index++) {
+            assertTrue(peak.get(index) <= limit, "index " + index + " held " + peak.get(index) + " times at once");
+            assertFree(keyspace, pick, index, limit);
+        }
+    }
+
+    /**
+     * Acquires {@code limit} sessions on {@code index} and checks the next is refused, then releases them.
+     */
+    private static void assertFree(SubscriberKeyspace keyspace, AtomicLong pick, long index, int limit) {
+        pick.set(index);
+        for (int i = 0; i < limit; i++) {
+            assertEquals(RANGE_START + index + 1, keyspace.acquire(), "index " + index + ", session " + i);
+        }
+        assertEquals(-1, keyspace.acquire(), "index " + index);
+        for (int i = 0; i < limit; i++) {
+            keyspace.release(RANGE_START + index + 1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class TimerWheelTest {
+    private static final long TICK = 1_000;
+    private static final long START = 5_000_000;
+
+    @Test
+    void expiresAtTheDeadlineTickAndNotBefore() {
+        TimerWheel wheel = new TimerWheel(4, 8, TICK, START);
+        int[] expired = new int[4];
+        wheel.schedule(1, START + 3 * TICK);
+        assertEquals(0, wheel.expire(START + 3 * TICK - 1, expired, expired.length));
+        assertEquals(1, wheel.expire(START + 3 * TICK, expired, expired.length));
+        assertEquals(1, expired[0]);
+    }
+
+    @Test
+    void keepsDeadlinesBeyondOneRotation() {
+        TimerWheel wheel = new TimerWheel(4, 8, TICK, START);
+        int[] expired = new int[4];
+        // same slot as tick 2, but two rotations later
+        wheel.schedule(0, START + 18 * TICK);
+        wheel.schedule(1, START + 2 * TICK);
+        assertEquals(1, wheel.expire(START + 17 * TICK, expired, expired.length));
+        assertEquals(1, expired[0]);
+        assertEquals(1, wheel.expire(START + 18 * TICK, expired, expired.length));
+        assertEquals(0, expired[0]);
+    }
+
+    @Test
+    void firesPastDeadlinesOnTheCurrentTick() {
+        TimerWheel wheel = new TimerWheel(4, 8, TICK, START);
+        int[] expired = new int[4];
+        assertEquals(0, wheel.expire(START + 10 * TICK, expired, expired.length));
+        wheel.schedule(2, START);
+        assertEquals(START + 11 * TICK, wheel.nextTickNanos());
+        assertEquals(1, wheel.expire(START + 11 * TICK, expired, expired.length));
+        assertEquals(2, expired[0]);
+    }
+
+    @Test
+    void reusesHandlesAfterExpiry() {
+        TimerWheel wheel = new TimerWheel(1, 4, TICK, START);
+        int[] expired = new int[1];
+        for (int round = 1; round <= 10; round++) {
+            wheel.schedule(0, START + round * TICK);
+            assertEquals(1, wheel.expire(START + round * TICK, expired, 1), "round " + round);
+            assertEquals(0, wheel.expire(START + round * TICK, expired, 1), "round " + round);
+        }
+    }
+
+    @Test
+    void deliversEveryHandleAcrossLimitedExpiries() {
+        int capacity = 100;
+        TimerWheel wheel = new TimerWheel(capacity, 8, TICK, START);
+        for (int handle = 0; handle < capacity; handle++) {
+            wheel.schedule(handle, START + handle % 3 * TICK);
+        }
+        boolean[] seen = new boolean[capacity];
+        int[] expired = new int[capacity];
+        int total = 0;
+        int count;
+        do {
+            count = wheel.expire(START + 2 * TICK, expired, 7);
+            for (int i = 0; i < count; i++) {
+                assertFalse(seen[expired[i]], "handle " + expired[i] + " expired twice");
+                seen[expired[i]] = true;
+            }
+            total += count;
+        } while (count == 7);
+        assertEquals(capacity, total);
+        assertEquals(0, wheel.expire(START + 2 * TICK, expired, capacity));
+    }
+}
@@ -0,0 +1,56 @@
+package com.optiva;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipfianSelectorTest {
+    private static final int COUNT = 1_000;
+    private static final int DRAWS = 1_000_000;
+
+    @Test
+    void picksTheTopRanksAtTheirZipfFrequency() {
+        double theta = 0.99;
+        double zeta = 0;
+        for (int rank = 1; rank <= COUNT; rank++) {
+            zeta += 1 / Math.pow(rank, theta);
+        }
+        long[] picks = draw(new ZipfianSelector(COUNT, theta));
+        // about 13% of the draws; a 5% relative tolerance is more than 10 standard deviations
+        assertFrequency(1 / zeta, picks[0], "rank 1");
+        assertFrequency(Math.pow(0.5, theta) / zeta, picks[1], "rank 2");
+        assertTrue(picks[1] > picks[9] && picks[9] > picks[99], "popularity does not fall with rank");
+    }
+
+    @Test
+    void skewGrowsWithTheta() {
+        long mild = draw(new ZipfianSelector(COUNT, 0.5))[0];
+        long hot = draw(new ZipfianSelector(COUNT, 0.99))[0];
+        assertTrue(hot > 5 * mild, "rank 1 drawn " + hot + " times at 0.99 and " + mild + " at 0.5");
+    }
+
+    @Test
+    void staysWithinTheRange() {
+        long[] picks = draw(new ZipfianSelector(2, 0.99));
+        assertEquals(DRAWS, picks[0] + picks[1]);
+        assertTrue(picks[1] > 0);
+        assertThrows(IllegalArgumentException.class, () -> new ZipfianSelector(COUNT, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ZipfianSelector(COUNT, 0));
+    }
+
+    private static long[] draw(ZipfianSelector selector) {
+        long[] picks = new long[COUNT];
+        for (int i = 0; i < DRAWS; i++) {
+            picks[(int) selector.next()]++;
+        }
+        return picks;
+    }
+
+    private static void assertFrequency(double expected, long picks, String rank) {
+        double actual = (double) picks / DRAWS;
+        assertTrue(Math.abs(actual - expected) <= expected * 0.05,
+                   rank + " drawn " + actual + " of the time, expected " + expected);
+    }
+}